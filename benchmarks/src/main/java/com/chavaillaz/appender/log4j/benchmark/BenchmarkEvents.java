@@ -0,0 +1,60 @@
+package com.chavaillaz.appender.log4j.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.chavaillaz.appender.log4j.LogConverter;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+
+/**
+ * Events and documents shared by the benchmarks, representative of the logs of an application.
+ */
+public final class BenchmarkEvents {
+
+    private BenchmarkEvents() {
+    }
+
+    /**
+     * Creates an event with some context data and optionally an exception.
+     *
+     * @param exception {@code true} to attach an exception with a cause to the event
+     * @return The immutable event
+     */
+    public static LogEvent createEvent(boolean exception) {
+        SortedArrayStringMap context = new SortedArrayStringMap();
+        context.putValue("requestId", "4f1c2d3e-8b9a-4c7d-9e6f-1a2b3c4d5e6f");
+        context.putValue("user", "benchmark");
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName("com.chavaillaz.appender.log4j.benchmark.BenchmarkService")
+                .setLoggerFqcn("org.apache.logging.log4j.spi.AbstractLogger")
+                .setLevel(exception ? Level.ERROR : Level.INFO)
+                .setMessage(new SimpleMessage("Request processed with status 200 in 12ms for the order 123456"))
+                .setThreadName("http-nio-8080-exec-1")
+                .setTimeMillis(System.currentTimeMillis())
+                .setContextData(context)
+                .setThrown(exception ? new IllegalStateException("Order cannot be processed",
+                        new IllegalArgumentException("Invalid quantity")) : null)
+                .build();
+    }
+
+    /**
+     * Converts the given number of events into documents.
+     *
+     * @param converter The converter to use
+     * @param count     The number of documents
+     * @return The documents
+     */
+    public static List<Map<String, Object>> createDocuments(LogConverter converter, int count) {
+        List<Map<String, Object>> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            documents.add(converter.convert(createEvent(i % 100 == 0)));
+        }
+        return documents;
+    }
+
+}
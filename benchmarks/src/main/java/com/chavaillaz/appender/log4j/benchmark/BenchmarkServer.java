@@ -0,0 +1,73 @@
+package com.chavaillaz.appender.log4j.benchmark;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process HTTP server standing in for Elasticsearch, answering every request with a canned bulk response
+ * so that the benchmarks measure the cost on the client side only.
+ */
+public class BenchmarkServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] response;
+
+    /**
+     * Creates and starts a new server on a free local port.
+     *
+     * @param documents The number of items of the canned bulk response
+     * @throws IOException If the server cannot be started
+     */
+    public BenchmarkServer(int documents) throws IOException {
+        StringBuilder items = new StringBuilder();
+        for (int i = 0; i < documents; i++) {
+            items.append(i > 0 ? "," : "")
+                    .append("{\"index\":{\"_index\":\"benchmark\",\"_id\":\"").append(i)
+                    .append("\",\"_version\":1,\"result\":\"created\",\"status\":201}}");
+        }
+        this.response = ("{\"took\":1,\"errors\":false,\"items\":[" + items + "]}").getBytes(UTF_8);
+        this.executor = Executors.newFixedThreadPool(4);
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream input = exchange.getRequestBody()) {
+            input.transferTo(OutputStream.nullOutputStream());
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(response);
+        }
+    }
+
+    /**
+     * Gets the URL of the server.
+     *
+     * @return The URL to use as Elasticsearch address
+     */
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+}
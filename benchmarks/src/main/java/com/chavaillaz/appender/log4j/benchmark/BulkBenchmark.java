@@ -0,0 +1,126 @@
+package com.chavaillaz.appender.log4j.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchAppender;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchBufferPool;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchBulkBody;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchBulkSerializer;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchConfiguration;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchLogDelivery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Assembly, serialization and sending of the bulk requests, the latter against an in-process server
+ * answering with a canned bulk response, using the typed requests or the streaming bulk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Small responses of the server not delayed by the Nagle algorithm, hiding the cost on the client side
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class BulkBenchmark {
+
+    @Param({"100", "1000"})
+    public int batchSize;
+
+    @Param({"false", "true"})
+    public boolean streamingBulk;
+
+    @Param({
+            "com.chavaillaz.appender.log4j.elastic.ElasticsearchLogConverter",
+            "com.chavaillaz.appender.log4j.elastic.ElasticsearchCompiledConverter"
+    })
+    public String converter;
+
+    private BenchmarkServer server;
+    private BenchmarkDelivery delivery;
+    private ElasticsearchBulkSerializer serializer;
+    private List<Map<String, Object>> documents;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new BenchmarkServer(batchSize);
+        ElasticsearchConfiguration configuration = ElasticsearchAppender.builder()
+                .setName("benchmark")
+                .setApplicationName("benchmark")
+                .setElasticUrl(server.getUrl())
+                .setElasticUser("elastic")
+                .setElasticPassword("changeme")
+                .setElasticConverter(converter)
+                .setFlushThreshold(batchSize)
+                .setFlushInterval(3_600_000)
+                .setStreamingBulk(streamingBulk)
+                .build()
+                .getLogConfiguration();
+        delivery = new BenchmarkDelivery(configuration);
+        serializer = new ElasticsearchBulkSerializer(configuration, new ElasticsearchBufferPool(2, configuration.getBulkBufferSize()));
+        documents = BenchmarkEvents.createDocuments(configuration.getConverter(), batchSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        delivery.close();
+        server.close();
+    }
+
+    @Benchmark
+    public BulkRequest assembleTypedBulk() {
+        return delivery.createBulkRequest(documents);
+    }
+
+    @Benchmark
+    public int serializeStreamingBulk() {
+        ElasticsearchBulkBody body = serializer.serialize(documents);
+        try {
+            return body.size();
+        } finally {
+            body.release();
+        }
+    }
+
+    @Benchmark
+    public boolean sendBulk() {
+        return delivery.sendBulk(documents);
+    }
+
+    /**
+     * Delivery handler giving access to the steps of the bulk requests.
+     */
+    public static class BenchmarkDelivery extends ElasticsearchLogDelivery {
+
+        public BenchmarkDelivery(ElasticsearchConfiguration configuration) {
+            super(configuration);
+        }
+
+        @Override
+        public BulkRequest createBulkRequest(List<Map<String, Object>> documents) {
+            return super.createBulkRequest(documents);
+        }
+
+        @Override
+        public boolean sendBulk(List<Map<String, Object>> documents) {
+            return super.sendBulk(documents);
+        }
+
+    }
+
+}
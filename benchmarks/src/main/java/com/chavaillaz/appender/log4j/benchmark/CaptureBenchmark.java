@@ -0,0 +1,56 @@
+package com.chavaillaz.appender.log4j.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchAppender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost on the logging thread of capturing an event in the task given to the delivery executor,
+ * from an immutable event and from a mutable event (as given by the asynchronous loggers).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CaptureBenchmark {
+
+    private ElasticsearchAppender appender;
+    private LogEvent immutableEvent;
+    private MutableLogEvent mutableEvent;
+
+    @Setup
+    public void setup() {
+        appender = ElasticsearchAppender.builder()
+                .setName("benchmark")
+                .setElasticUrl("http://localhost:9200")
+                .build();
+        immutableEvent = BenchmarkEvents.createEvent(false);
+        mutableEvent = new MutableLogEvent();
+        mutableEvent.initFrom(immutableEvent);
+    }
+
+    @Benchmark
+    public Runnable captureImmutable() {
+        return appender.createLogDeliveryTask(immutableEvent);
+    }
+
+    @Benchmark
+    public Runnable captureMutable() {
+        return appender.createLogDeliveryTask(mutableEvent);
+    }
+
+}
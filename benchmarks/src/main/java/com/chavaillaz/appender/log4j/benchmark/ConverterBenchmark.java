@@ -0,0 +1,68 @@
+package com.chavaillaz.appender.log4j.benchmark;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchConfiguration;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchStackTraceCache;
+import org.apache.logging.log4j.core.LogEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of an event into a document by each converter, with and without exception
+ * and with and without the cache of the rendered stack traces.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConverterBenchmark {
+
+    @Param({
+            "com.chavaillaz.appender.log4j.DefaultLogConverter",
+            "com.chavaillaz.appender.log4j.elastic.ElasticsearchLogConverter",
+            "com.chavaillaz.appender.log4j.elastic.ElasticsearchCompiledConverter"
+    })
+    public String converter;
+
+    @Param({"false", "true"})
+    public boolean exception;
+
+    @Param({"0", "1024"})
+    public int stackTraceCacheSize;
+
+    private ElasticsearchConfiguration configuration;
+    private LogEvent event;
+
+    @Setup
+    public void setup() {
+        configuration = new ElasticsearchConfiguration();
+        configuration.setApplication("benchmark");
+        configuration.setHost("localhost");
+        configuration.setEnvironment("local");
+        if (stackTraceCacheSize > 0) {
+            configuration.setStackTraceCache(new ElasticsearchStackTraceCache(stackTraceCacheSize, Duration.ZERO));
+        }
+        configuration.setConverter(converter);
+        event = BenchmarkEvents.createEvent(exception);
+    }
+
+    @Benchmark
+    public Map<String, Object> convert() {
+        return configuration.getConverter().convert(event);
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.chavaillaz.appender.log4j.benchmark;
+
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Computation of the index name of a document, formatting the suffix for each document
+ * compared to the resolver caching the name of the current time bucket.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexNameBenchmark {
+
+    @Param({"", "-yyyy.MM.dd"})
+    public String indexSuffix;
+
+    private ElasticsearchConfiguration configuration;
+    private Map<String, Object> document;
+
+    @Setup
+    public void setup() {
+        configuration = new ElasticsearchConfiguration();
+        configuration.setIndex("benchmark");
+        configuration.setIndexSuffix(indexSuffix);
+        document = Map.of("datetime", OffsetDateTime.now().toString());
+    }
+
+    @Benchmark
+    public String generateIndexName() {
+        return configuration.generateIndexName(OffsetDateTime.now());
+    }
+
+    @Benchmark
+    public String resolveIndexName() {
+        return configuration.getIndexResolver().resolve(document, System.currentTimeMillis());
+    }
+
+}
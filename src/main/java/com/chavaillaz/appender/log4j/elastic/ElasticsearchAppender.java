@@ -6,19 +6,32 @@ import static org.apache.logging.log4j.core.Appender.ELEMENT_TYPE;
 import static org.apache.logging.log4j.core.Core.CATEGORY_NAME;
 import static org.apache.logging.log4j.core.layout.PatternLayout.createDefaultLayout;
 
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 import com.chavaillaz.appender.LogDelivery;
 import com.chavaillaz.appender.log4j.AbstractLogDeliveryAppender;
-import com.chavaillaz.appender.log4j.DefaultLogConverter;
-import com.chavaillaz.appender.log4j.LogConverter;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.experimental.Accessors;
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.Filter;
 import org.apache.logging.log4j.core.Layout;
 import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
 import org.apache.logging.log4j.core.config.plugins.Plugin;
 import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
 import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
@@ -31,8 +44,35 @@ import org.apache.logging.log4j.core.config.plugins.validation.constraints.Requi
 @Plugin(name = "ElasticsearchAppender", category = CATEGORY_NAME, elementType = ELEMENT_TYPE)
 public class ElasticsearchAppender extends AbstractLogDeliveryAppender<ElasticsearchConfiguration> {
 
+    private static final long MAX_SPILL_TIME = TimeUnit.SECONDS.toNanos(2);
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    private final List<ElasticsearchDeliveryWorker> workers = new ArrayList<>();
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    // Event marking the end of the tasks submitted to the executor of the base appender
+    private final LogEvent shutdownBarrier = Log4jLogEvent.newBuilder().build();
+    private final CountDownLatch shutdownLatch = new CountDownLatch(1);
+    private volatile boolean accepting = true;
+
     protected ElasticsearchAppender(String name, Filter filter, Layout<?> layout, ElasticsearchConfiguration configuration) {
         super(name, filter, layout, configuration);
+        int threads = Math.max(1, configuration.getDeliveryThreads());
+        int ringBufferSize = configuration.getRingBufferSize();
+        int bufferSize = configuration.getBufferSize();
+        if (threads > 1 || ringBufferSize > 0 || bufferSize > 0) {
+            String suffix = ringBufferSize > 0 ? "-ring-buffer" : "-buffer";
+            for (int i = 0; i < threads; i++) {
+                int partition = i;
+                workers.add(new ElasticsearchDeliveryWorker(
+                        name + suffix + (threads > 1 ? "-" + i : ""), configuration,
+                        ceilDiv(ringBufferSize, threads), ceilDiv(bufferSize, threads),
+                        event -> deliver(partition, event)));
+            }
+        }
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
     }
 
     @PluginBuilderFactory
@@ -42,15 +82,255 @@ public class ElasticsearchAppender extends AbstractLogDeliveryAppender<Elasticse
 
     @Override
     public LogDelivery createLogDeliveryHandler() {
-        return new ElasticsearchLogDelivery(getLogConfiguration());
+        if (workers.size() > 1) {
+            return new ElasticsearchPartitionedDelivery(getLogConfiguration(), workers.size());
+        }
+        ElasticsearchLogDelivery delivery = new ElasticsearchLogDelivery(getLogConfiguration());
+        if (getLogConfiguration().getSpoolDirectory() != null) {
+            ElasticsearchPartitionedDelivery.importSpools(Path.of(getLogConfiguration().getSpoolDirectory()), List.of(delivery), false);
+        }
+        return delivery;
+    }
+
+    @Override
+    public void start() {
+        super.start();
+        ElasticsearchMetrics metrics = getLogConfiguration().getMetrics();
+        if (!workers.isEmpty()) {
+            metrics.setBufferDepth(() -> workers.stream().mapToInt(ElasticsearchDeliveryWorker::size).sum());
+        }
+        if (getLogConfiguration().isJmx()) {
+            try {
+                metrics.register(getName());
+            } catch (Exception e) {
+                error("Metrics cannot be registered in JMX", e);
+            }
+        }
+        workers.forEach(ElasticsearchDeliveryWorker::start);
+    }
+
+    @Override
+    public void append(LogEvent loggingEvent) {
+        getLogConfiguration().getMetrics().onEventsReceived(1);
+        if (!accepting) {
+            getLogConfiguration().getMetrics().onEventsDropped(loggingEvent.getLevel(), 1);
+            return;
+        }
+        ElasticsearchSampler sampler = getLogConfiguration().getSampler();
+        if (sampler != null && !sampler.accept(loggingEvent)) {
+            getLogConfiguration().getMetrics().onEventsSampled(loggingEvent.getLevel(), 1);
+            return;
+        }
+        if (workers.isEmpty()) {
+            super.append(loggingEvent);
+            return;
+        }
+        LogEvent dropped = selectWorker().offer(loggingEvent);
+        if (dropped != null) {
+            getLogConfiguration().getMetrics().onEventsDropped(dropped.getLevel(), 1);
+        }
+    }
+
+    /**
+     * Selects the worker to which give the event currently appended, following the configured partitioning.
+     *
+     * @return The delivery worker
+     */
+    protected ElasticsearchDeliveryWorker selectWorker() {
+        if (workers.size() == 1) {
+            return workers.get(0);
+        }
+        int index = getLogConfiguration().getDeliveryPartitioning() == ElasticsearchPartitioning.ROUND_ROBIN
+                ? nextWorker.getAndIncrement()
+                : System.identityHashCode(Thread.currentThread());
+        return workers.get(Math.floorMod(index, workers.size()));
+    }
+
+    /**
+     * Gets the number of events dropped because the buffer was full.
+     *
+     * @return The number of events dropped
+     */
+    public long getDroppedEvents() {
+        return getLogConfiguration().getMetrics().getEventsDropped();
+    }
+
+    /**
+     * Gets the number of events of the given level dropped because the buffer was full.
+     *
+     * @param level The level of the events
+     * @return The number of events dropped
+     */
+    public long getDroppedEvents(Level level) {
+        return getLogConfiguration().getMetrics().getEventsDropped(level);
+    }
+
+    @Override
+    public boolean stop(long timeout, TimeUnit timeUnit) {
+        try {
+            long shutdownTimeout = getLogConfiguration().getShutdownTimeout().toNanos();
+            shutdown(timeout > 0 ? Math.min(shutdownTimeout, timeUnit.toNanos(timeout)) : shutdownTimeout);
+        } catch (InterruptedException e) {
+            error("Thread interrupted during buffer termination", e);
+            Thread.currentThread().interrupt();
+        }
+        if (getLogConfiguration().isJmx()) {
+            try {
+                getLogConfiguration().getMetrics().unregister(getName());
+            } catch (Exception e) {
+                error("Metrics cannot be unregistered from JMX", e);
+            }
+        }
+        return super.stop(timeout, timeUnit);
+    }
+
+    /**
+     * Stops accepting events and delivers the pending ones within the given timeout: the buffers are drained,
+     * the batches of all the partitions are sent in parallel and the bulk requests in flight are awaited.
+     * Near the end of the timeout, the documents still pending are written in the shutdown file (or the spool).
+     * Note that a bulk request being sent when the timeout expires is only given up after the socket timeout.
+     *
+     * @param timeout The maximum time (ns) to deliver the pending events, being the shutdown timeout
+     *                configured unless the one given when stopping the appender is shorter
+     * @throws InterruptedException If interrupted while waiting
+     */
+    protected void shutdown(long timeout) throws InterruptedException {
+        ElasticsearchMetrics metrics = getLogConfiguration().getMetrics();
+        long sentBefore = metrics.getEventsSent();
+        long spilledBefore = metrics.getEventsSpilled();
+        long start = System.nanoTime();
+        long deadline = start + timeout;
+        long drainDeadline = deadline - Math.min(timeout / 10, MAX_SPILL_TIME);
+        accepting = false;
+
+        workers.forEach(ElasticsearchDeliveryWorker::shutdown);
+        if (workers.isEmpty()) {
+            // The tasks of the base appender are executed in order, the barrier being the last one
+            super.append(shutdownBarrier);
+            shutdownLatch.await(remaining(drainDeadline), TimeUnit.NANOSECONDS);
+        }
+        for (ElasticsearchDeliveryWorker worker : workers) {
+            worker.awaitTermination(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining(drainDeadline))));
+        }
+
+        List<ElasticsearchLogDelivery> deliveries = getDeliveries();
+        // Same threads for all the phases, a new one being only created while the previous ones are still busy
+        ExecutorService executor = Executors.newCachedThreadPool(
+                ElasticsearchUtils.createThreadFactory(getName() + "-shutdown", getLogConfiguration().isVirtualThreads()));
+        try {
+            boolean drained = invokeAll(executor, deliveries, delivery -> delivery.drain(drainDeadline), drainDeadline)
+                    && workers.stream().noneMatch(ElasticsearchDeliveryWorker::isAlive);
+            if (!drained) {
+                invokeAll(executor, deliveries, delivery -> {
+                    delivery.spill();
+                    return true;
+                }, deadline);
+                if (workers.isEmpty()) {
+                    shutdownLatch.await(remaining(deadline), TimeUnit.NANOSECONDS);
+                }
+                for (ElasticsearchDeliveryWorker worker : workers) {
+                    worker.awaitTermination(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining(deadline))));
+                }
+                invokeAll(executor, deliveries, delivery -> {
+                    delivery.flush();
+                    return true;
+                }, deadline);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long remaining = workers.isEmpty() && shutdownLatch.getCount() > 0
+                ? -1 : workers.stream().mapToLong(ElasticsearchDeliveryWorker::size).sum();
+        LOGGER.info("Appender {} shut down in {}ms: {} events sent, {} events spilled, {} events remaining (-1 if unknown)",
+                getName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                metrics.getEventsSent() - sentBefore, metrics.getEventsSpilled() - spilledBefore, remaining);
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+
+    private List<ElasticsearchLogDelivery> getDeliveries() {
+        LogDelivery handler = getLogDeliveryHandler();
+        if (handler instanceof ElasticsearchPartitionedDelivery partitionedHandler) {
+            List<ElasticsearchLogDelivery> partitions = new ArrayList<>();
+            for (int i = 0; i < partitionedHandler.getPartitionCount(); i++) {
+                partitions.add(partitionedHandler.getPartition(i));
+            }
+            return partitions;
+        }
+        return handler instanceof ElasticsearchLogDelivery delivery ? List.of(delivery) : List.of();
+    }
+
+    private boolean invokeAll(ExecutorService executor, List<ElasticsearchLogDelivery> deliveries,
+                              Predicate<ElasticsearchLogDelivery> action, long deadline) throws InterruptedException {
+        if (deliveries.isEmpty()) {
+            return true;
+        }
+        List<Callable<Boolean>> tasks = deliveries.stream()
+                .<Callable<Boolean>>map(delivery -> () -> action.test(delivery))
+                .toList();
+        boolean completed = true;
+        for (Future<Boolean> result : executor.invokeAll(tasks, remaining(deadline), TimeUnit.NANOSECONDS)) {
+            try {
+                completed &= !result.isCancelled() && result.get();
+            } catch (ExecutionException e) {
+                error("Log delivery shutdown error", e.getCause());
+                completed = false;
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Converts and sends the given event to the delivery handler of the given partition.
+     *
+     * @param partition The index of the partition (ignored when the delivery is not partitioned)
+     * @param event     The event to deliver
+     */
+    protected void deliver(int partition, LogEvent event) {
+        LogDelivery handler = getLogDeliveryHandler();
+        if (handler instanceof ElasticsearchPartitionedDelivery partitionedHandler) {
+            handler = partitionedHandler.getPartition(partition);
+        }
+        if (handler != null) {
+            try {
+                handler.send(convert(event));
+            } catch (Exception e) {
+                error("Log delivery error", e);
+            }
+        }
+    }
+
+    /**
+     * Converts the given event into a document, routed to the index of the first matching routing rule if any.
+     * The documents routed to a data stream get the time of the event in the field required by the data streams,
+     * and the other ones get the index of the time of the event when the event time is used.
+     *
+     * @param event The event to convert
+     * @return The document to send
+     */
+    protected Map<String, Object> convert(LogEvent event) {
+        Map<String, Object> document = getLogConfiguration().getConverter().convert(event);
+        ElasticsearchRouter router = getLogConfiguration().getRouter();
+        String index = router != null ? router.route(event) : null;
+        if (index == null) {
+            return getLogConfiguration().getIndexResolver().withEventTime(document, event.getTimeMillis());
+        }
+        return router.isDataStream(index)
+                ? ElasticsearchIndexResolver.withDataStream(document, index, event.getTimeMillis())
+                : ElasticsearchIndexResolver.withIndex(document, index);
     }
 
     @Override
     public Runnable createLogDeliveryTask(LogEvent loggingEvent) {
-        LogConverter converter = getLogConfiguration().getConverter();
+        if (loggingEvent == shutdownBarrier) {
+            return shutdownLatch::countDown;
+        }
         LogEvent immutableEvent = loggingEvent.toImmutable();
         return () -> Optional.ofNullable(getLogDeliveryHandler())
-                .ifPresent(handler -> handler.send(converter.convert(immutableEvent)));
+                .ifPresent(handler -> handler.send(convert(immutableEvent)));
     }
 
     @Getter
@@ -68,6 +348,9 @@ public class ElasticsearchAppender extends AbstractLogDeliveryAppender<Elasticse
         @PluginElement("Filter")
         private Filter filter;
 
+        @PluginElement("Routes")
+        private ElasticsearchRoute[] routes;
+
         @PluginBuilderAttribute("Application")
         private String applicationName = getProperty("APP", "unknown");
 
@@ -78,7 +361,37 @@ public class ElasticsearchAppender extends AbstractLogDeliveryAppender<Elasticse
         private String environmentName = getProperty("ENV", "local");
 
         @PluginBuilderAttribute("Converter")
-        private String elasticConverter = getProperty("CONVERTER", DefaultLogConverter.class.getName());
+        private String elasticConverter = getProperty("CONVERTER", ElasticsearchLogConverter.class.getName());
+
+        @PluginBuilderAttribute("Fields")
+        private String fields = getProperty("FIELDS", null);
+
+        @PluginBuilderAttribute("OmitConstantFields")
+        private boolean omitConstantFields = false;
+
+        @PluginBuilderAttribute("MaxMessageLength")
+        private int maxMessageLength = 0;
+
+        @PluginBuilderAttribute("MaxStackTraceLength")
+        private int maxStackTraceLength = 0;
+
+        @PluginBuilderAttribute("DropEmptyMdc")
+        private boolean dropEmptyMdc = false;
+
+        @PluginBuilderAttribute("StackTraceCacheSize")
+        private int stackTraceCacheSize = 0;
+
+        @PluginBuilderAttribute("StackTraceDedupWindow")
+        private long stackTraceDedupWindow = 0;
+
+        @PluginBuilderAttribute("SamplingLevel")
+        private String samplingLevel = "INFO";
+
+        @PluginBuilderAttribute("SampleRate")
+        private double sampleRate = 1;
+
+        @PluginBuilderAttribute("RateLimit")
+        private long rateLimit = 0;
 
         @PluginBuilderAttribute("Index")
         private String elasticIndex = getProperty("INDEX", "ha");
@@ -86,6 +399,12 @@ public class ElasticsearchAppender extends AbstractLogDeliveryAppender<Elasticse
         @PluginBuilderAttribute("IndexSuffix")
         private String elasticIndexSuffix = getProperty("INDEX_SUFFIX", "");
 
+        @PluginBuilderAttribute("IndexEventTime")
+        private boolean elasticIndexEventTime = false;
+
+        @PluginBuilderAttribute("Pipeline")
+        private String pipeline = getProperty("PIPELINE", null);
+
         @PluginBuilderAttribute("Url")
         private String elasticUrl = getProperty("ELASTIC_URL", null);
 
@@ -98,27 +417,211 @@ public class ElasticsearchAppender extends AbstractLogDeliveryAppender<Elasticse
         @PluginBuilderAttribute("ApiKey")
         private String elasticApiKey = getProperty("ELASTIC_API_KEY", null);
 
+        @PluginBuilderAttribute("Sniffing")
+        private boolean sniffing = false;
+
+        @PluginBuilderAttribute("SniffInterval")
+        private long sniffInterval = 300_000;
+
+        @PluginBuilderAttribute("NodeSelector")
+        private String nodeSelector = getProperty("NODE_SELECTOR", "any");
+
+        @PluginBuilderAttribute("MaxConnections")
+        private int maxConnections = 30;
+
+        @PluginBuilderAttribute("MaxConnectionsPerRoute")
+        private int maxConnectionsPerRoute = 10;
+
+        @PluginBuilderAttribute("IoThreads")
+        private int ioThreads = 0;
+
+        @PluginBuilderAttribute("ConnectTimeout")
+        private long connectTimeout = 1_000;
+
+        @PluginBuilderAttribute("SocketTimeout")
+        private long socketTimeout = 30_000;
+
+        @PluginBuilderAttribute("ConnectionRequestTimeout")
+        private long connectionRequestTimeout = 0;
+
+        @PluginBuilderAttribute("KeepAlive")
+        private long keepAlive = 0;
+
+        @PluginBuilderAttribute("SharedClient")
+        private boolean sharedClient = false;
+
         @PluginBuilderAttribute("FlushThreshold")
         private long flushThreshold = 100;
 
         @PluginBuilderAttribute("FlushInterval")
         private long flushInterval = 5_000;
 
+        @PluginBuilderAttribute("FlushBytes")
+        private long flushBytes = 0;
+
+        @PluginBuilderAttribute("AdaptiveFlush")
+        private boolean adaptiveFlush = false;
+
+        @PluginBuilderAttribute("MaxInFlightBulks")
+        private int maxInFlightBulks = 1;
+
+        @PluginBuilderAttribute("SpoolDirectory")
+        private String spoolDirectory = getProperty("SPOOL_DIRECTORY", null);
+
+        @PluginBuilderAttribute("SpoolMaxSize")
+        private long spoolMaxSize = 1_073_741_824;
+
+        @PluginBuilderAttribute("SpoolSegmentSize")
+        private long spoolSegmentSize = 67_108_864;
+
+        @PluginBuilderAttribute("SpoolSyncInterval")
+        private long spoolSyncInterval = 1000;
+
+        @PluginBuilderAttribute("RingBufferSize")
+        private int ringBufferSize = 0;
+
+        @PluginBuilderAttribute("DeliveryThreads")
+        private int deliveryThreads = 1;
+
+        @PluginBuilderAttribute("DeliveryPartitioning")
+        private String deliveryPartitioning = "Thread";
+
+        @PluginBuilderAttribute("VirtualThreads")
+        private boolean virtualThreads = false;
+
+        @PluginBuilderAttribute("BufferSize")
+        private int bufferSize = 0;
+
+        @PluginBuilderAttribute("OverflowPolicy")
+        private String overflowPolicy = getProperty("OVERFLOW_POLICY", "Block");
+
+        @PluginBuilderAttribute("OverflowTimeout")
+        private long overflowTimeout = 1_000;
+
+        @PluginBuilderAttribute("StreamingBulk")
+        private boolean streamingBulk = false;
+
+        @PluginBuilderAttribute("BulkBufferSize")
+        private int bulkBufferSize = 1_048_576;
+
+        @PluginBuilderAttribute("Compression")
+        private String compression = getProperty("COMPRESSION", "none");
+
+        @PluginBuilderAttribute("CompressionThreshold")
+        private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+        @PluginBuilderAttribute("MaxRetries")
+        private int maxRetries = 3;
+
+        @PluginBuilderAttribute("RetryBackoff")
+        private long retryBackoff = 100;
+
+        @PluginBuilderAttribute("CircuitBreakerThreshold")
+        private int circuitBreakerThreshold = 0;
+
+        @PluginBuilderAttribute("HealthProbeInterval")
+        private long healthProbeInterval = 5_000;
+
+        @PluginBuilderAttribute("DeadLetterIndex")
+        private String deadLetterIndex = getProperty("DEAD_LETTER_INDEX", null);
+
+        @PluginBuilderAttribute("DeadLetterFile")
+        private String deadLetterFile = getProperty("DEAD_LETTER_FILE", null);
+
+        @PluginBuilderAttribute("ShutdownTimeout")
+        private long shutdownTimeout = 10_000;
+
+        @PluginBuilderAttribute("ShutdownFile")
+        private String shutdownFile;
+
+        @PluginBuilderAttribute("Jmx")
+        private boolean jmx = false;
+
+        @PluginBuilderAttribute("MetricsListener")
+        private String metricsListener = getProperty("METRICS_LISTENER", null);
+
         @Override
         public ElasticsearchAppender build() {
             ElasticsearchConfiguration configuration = new ElasticsearchConfiguration();
+            configuration.setAppenderName(getName());
             configuration.setApplication(getApplicationName());
             configuration.setHost(getHostName());
             configuration.setEnvironment(getEnvironmentName());
+            configuration.setFields(getFields());
+            configuration.setOmitConstantFields(isOmitConstantFields());
+            configuration.setMaxMessageLength(getMaxMessageLength());
+            configuration.setMaxStackTraceLength(getMaxStackTraceLength());
+            configuration.setDropEmptyMdc(isDropEmptyMdc());
+            if (getSampleRate() < 1 || getRateLimit() > 0) {
+                configuration.setSampler(new ElasticsearchSampler(Level.toLevel(getSamplingLevel(), Level.INFO),
+                        getSampleRate(), getRateLimit()));
+            }
+            if (getStackTraceCacheSize() > 0) {
+                configuration.setStackTraceCache(new ElasticsearchStackTraceCache(getStackTraceCacheSize(),
+                        Duration.ofMillis(getStackTraceDedupWindow())));
+            }
             configuration.setConverter(getElasticConverter());
             configuration.setIndex(getElasticIndex());
             configuration.setIndexSuffix(getElasticIndexSuffix());
+            configuration.setIndexEventTime(isElasticIndexEventTime());
+            configuration.setRoutes(getRoutes() != null ? List.of(getRoutes()) : null);
+            configuration.setPipeline(getPipeline());
             configuration.setUrl(getElasticUrl());
             configuration.setUser(getElasticUser());
             configuration.setPassword(getElasticPassword());
             configuration.setApiKey(getElasticApiKey());
+            configuration.setSniffing(isSniffing());
+            configuration.setSniffInterval(Duration.ofMillis(getSniffInterval()));
+            configuration.setNodeSelector(getNodeSelector());
+            configuration.setMaxConnections(getMaxConnections());
+            configuration.setMaxConnectionsPerRoute(getMaxConnectionsPerRoute());
+            configuration.setIoThreads(getIoThreads());
+            configuration.setConnectTimeout(Duration.ofMillis(getConnectTimeout()));
+            configuration.setSocketTimeout(Duration.ofMillis(getSocketTimeout()));
+            configuration.setConnectionRequestTimeout(Duration.ofMillis(getConnectionRequestTimeout()));
+            configuration.setKeepAlive(Duration.ofMillis(getKeepAlive()));
+            configuration.setSharedClient(isSharedClient());
             configuration.setFlushThreshold(getFlushThreshold());
             configuration.setFlushInterval(Duration.ofMillis(getFlushInterval()));
+            configuration.setFlushBytes(getFlushBytes());
+            configuration.setAdaptiveFlush(isAdaptiveFlush());
+            configuration.setMaxInFlightBulks(getMaxInFlightBulks());
+            configuration.setSpoolDirectory(getSpoolDirectory());
+            configuration.setSpoolMaxSize(getSpoolMaxSize());
+            configuration.setSpoolSegmentSize(getSpoolSegmentSize());
+            configuration.setSpoolSyncInterval(Duration.ofMillis(getSpoolSyncInterval()));
+            configuration.setRingBufferSize(getRingBufferSize());
+            configuration.setDeliveryThreads(getDeliveryThreads());
+            configuration.setDeliveryPartitioning(getDeliveryPartitioning());
+            configuration.setVirtualThreads(isVirtualThreads());
+            if (isVirtualThreads() && getDeliveryThreads() <= 1 && getRingBufferSize() <= 0 && getBufferSize() <= 0) {
+                // The executor of the base appender converting and delivering the events uses a platform thread
+                LOGGER.warn("Virtual threads of appender {} only used for background tasks without buffer configured", getName());
+            }
+            configuration.setBufferSize(getBufferSize());
+            configuration.setOverflowPolicy(getOverflowPolicy());
+            configuration.setOverflowTimeout(Duration.ofMillis(getOverflowTimeout()));
+            configuration.setStreamingBulk(isStreamingBulk());
+            configuration.setBulkBufferSize(getBulkBufferSize());
+            configuration.setCompression(getCompression());
+            configuration.setCompressionThreshold(getCompressionThreshold());
+            if (configuration.getCompression() == ElasticsearchCompression.GZIP && !isStreamingBulk()
+                    && getCompressionThreshold() != DEFAULT_COMPRESSION_THRESHOLD) {
+                // The client compresses all the typed bulk requests, the threshold being applied by the delivery when streaming
+                LOGGER.warn("Compression threshold of appender {} ignored without streaming bulk, all bodies being compressed", getName());
+            }
+            configuration.setMaxRetries(getMaxRetries());
+            configuration.setRetryBackoff(Duration.ofMillis(getRetryBackoff()));
+            if (getCircuitBreakerThreshold() > 0) {
+                configuration.setCircuitBreaker(new ElasticsearchCircuitBreaker(getCircuitBreakerThreshold(),
+                        Duration.ofMillis(getHealthProbeInterval()), configuration.getMetrics()));
+            }
+            configuration.setDeadLetterIndex(getDeadLetterIndex());
+            configuration.setDeadLetterFile(getDeadLetterFile());
+            configuration.setShutdownTimeout(Duration.ofMillis(getShutdownTimeout()));
+            configuration.setShutdownFile(getShutdownFile());
+            configuration.setJmx(isJmx());
+            configuration.setMetricsListener(getMetricsListener());
             return new ElasticsearchAppender(getName(), getFilter(), getLayout(), configuration);
         }
 
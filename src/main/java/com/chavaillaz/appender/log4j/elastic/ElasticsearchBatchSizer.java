@@ -0,0 +1,124 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * Controller of the size of the batches, triggering their sending when reaching a number of bytes
+ * or an effective number of documents adapted to the observed latency of the bulk requests.
+ * <p>
+ * The adaptive mode is climbing the throughput (documents per unit of round trip time): the size keeps moving
+ * in the same direction as long as the throughput is not degrading, and reverses its direction otherwise.
+ * The size is halved when documents are rejected because of the cluster pressure, or when the time spent
+ * by the cluster for each document is suddenly increasing.
+ */
+public class ElasticsearchBatchSizer {
+
+    private static final double GROWTH_FACTOR = 1.25;
+    private static final double TOLERANCE = 0.95;
+    private static final double SMOOTHING = 0.2;
+    private static final double PRESSURE_FACTOR = 2;
+    private static final int ACTION_SIZE = 32;
+
+    private final int maxDocuments;
+    private final long maxBytes;
+    private final boolean adaptive;
+    private int batchDocuments;
+    private long batchBytes;
+    private int direction = -1;
+    private double lastThroughput;
+    private double averageTook;
+
+    @Getter
+    private volatile int targetDocuments;
+
+    /**
+     * Creates a new batch sizer.
+     *
+     * @param maxDocuments The maximum number of documents in a batch, used as initial size in adaptive mode
+     * @param maxBytes     The estimated number of bytes triggering the sending of a batch or {@code 0} to disable it
+     * @param adaptive     {@code true} to adapt the number of documents to the observed latency
+     */
+    public ElasticsearchBatchSizer(int maxDocuments, long maxBytes, boolean adaptive) {
+        this.maxDocuments = Math.max(1, maxDocuments);
+        this.maxBytes = maxBytes;
+        this.adaptive = adaptive;
+        this.targetDocuments = this.maxDocuments;
+    }
+
+    /**
+     * Estimates the number of bytes of a document once serialized, including its action line.
+     *
+     * @param document The document to send
+     * @return The estimated number of bytes
+     */
+    public static long estimateSize(Map<String, Object> document) {
+        if (document instanceof ElasticsearchRawDocument raw) {
+            return ACTION_SIZE + raw.getLength();
+        }
+        long size = ACTION_SIZE;
+        for (Map.Entry<String, Object> entry : document.entrySet()) {
+            size += entry.getKey().length() + 4L;
+            size += entry.getValue() instanceof CharSequence text ? text.length() + 2L : 8L;
+        }
+        return size;
+    }
+
+    /**
+     * Adds the given document to the current batch.
+     * Note that the calls have to be synchronized with the ones of {@link #reset()}.
+     *
+     * @param document The document added
+     * @return {@code true} if the batch has to be sent
+     */
+    public boolean add(Map<String, Object> document) {
+        batchDocuments++;
+        if (maxBytes > 0) {
+            batchBytes += estimateSize(document);
+        }
+        return (maxBytes > 0 && batchBytes >= maxBytes) || (adaptive && batchDocuments >= targetDocuments);
+    }
+
+    /**
+     * Starts a new batch, once the current one is sent.
+     */
+    public void reset() {
+        batchDocuments = 0;
+        batchBytes = 0;
+    }
+
+    /**
+     * Adapts the number of documents of the next batches to the result of a bulk request.
+     *
+     * @param documents The number of documents sent
+     * @param roundTrip The time (ns) between the sending of the request and the reception of its response
+     * @param took      The time (ms) spent by the cluster to execute the request
+     * @param rejected  The number of documents rejected because of the cluster pressure
+     */
+    public synchronized void update(int documents, long roundTrip, long took, int rejected) {
+        // Batches flushed by time are too small to be representative of the current size
+        if (!adaptive || documents == 0 || (rejected == 0 && documents < targetDocuments / 2)) {
+            return;
+        }
+
+        double tookPerDocument = (double) took / documents;
+        boolean pressure = rejected > 0 || (averageTook > 0 && tookPerDocument > averageTook * PRESSURE_FACTOR);
+        averageTook = averageTook == 0 ? tookPerDocument : averageTook + SMOOTHING * (tookPerDocument - averageTook);
+        if (pressure) {
+            targetDocuments = Math.max(1, targetDocuments / 2);
+            direction = 1;
+            lastThroughput = 0;
+            return;
+        }
+
+        double throughput = (double) documents / Math.max(1, roundTrip);
+        if (throughput < lastThroughput * TOLERANCE) {
+            direction = -direction;
+        }
+        lastThroughput = throughput;
+        int next = (int) (direction > 0 ? Math.ceil(targetDocuments * GROWTH_FACTOR) : targetDocuments / GROWTH_FACTOR);
+        targetDocuments = Math.max(1, Math.min(maxDocuments, next));
+    }
+
+}
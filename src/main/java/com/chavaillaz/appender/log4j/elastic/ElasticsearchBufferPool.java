@@ -0,0 +1,74 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import lombok.Getter;
+
+/**
+ * Pool of direct byte buffers reused between bulk requests.
+ * Buffers grown beyond the initial size are kept as they are when released, replacing a smaller one
+ * when the pool is full, so that the pool converges to the size of the bulks being sent.
+ */
+public class ElasticsearchBufferPool {
+
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    @Getter
+    private final int bufferSize;
+
+    /**
+     * Creates a new pool of buffers.
+     *
+     * @param poolSize   The maximum number of buffers kept in the pool
+     * @param bufferSize The initial size of the buffers
+     */
+    public ElasticsearchBufferPool(int poolSize, int bufferSize) {
+        this.buffers = new ArrayBlockingQueue<>(Math.max(poolSize, 1));
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Gets a buffer from the pool or allocates a new one if none is available with the given capacity,
+     * the buffer taken from the pool being given back when too small.
+     *
+     * @param capacity The minimum capacity of the buffer
+     * @return The cleared buffer
+     */
+    public ByteBuffer acquire(int capacity) {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null || buffer.capacity() < capacity) {
+            release(buffer);
+            return ByteBuffer.allocateDirect(Math.max(bufferSize, capacity));
+        }
+        return buffer.clear();
+    }
+
+    /**
+     * Gives back the given buffer to the pool. When the pool is already full, the given buffer replaces
+     * the next one of the pool if smaller, and is discarded otherwise.
+     *
+     * @param buffer The buffer to release
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffers.offer(buffer.clear())) {
+            return;
+        }
+        ByteBuffer pooled = buffers.poll();
+        if (pooled != null && pooled.capacity() > buffer.capacity()) {
+            buffer = pooled;
+        }
+        buffers.offer(buffer);
+    }
+
+    /**
+     * Gets the number of buffers available in the pool.
+     *
+     * @return The number of buffers
+     */
+    public int size() {
+        return buffers.size();
+    }
+
+}
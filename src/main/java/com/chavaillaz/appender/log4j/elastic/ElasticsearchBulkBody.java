@@ -0,0 +1,252 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import lombok.Getter;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+/**
+ * Body of a bulk request written in a pooled direct byte buffer.
+ * Note that the body must be released once the request using it is completed.
+ */
+public class ElasticsearchBulkBody extends OutputStream {
+
+    public static final String CONTENT_TYPE = "application/x-ndjson";
+    public static final String GZIP_ENCODING = "gzip";
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int DEFLATE_CHUNK_SIZE = 8192;
+
+    private final ElasticsearchBufferPool pool;
+    private ByteBuffer buffer;
+
+    @Getter
+    private int documents;
+
+    @Getter
+    private String encoding;
+
+    /**
+     * Creates a new bulk body.
+     *
+     * @param pool The pool from which the buffers are taken
+     */
+    public ElasticsearchBulkBody(ElasticsearchBufferPool pool) {
+        this.pool = pool;
+        this.buffer = pool.acquire(pool.getBufferSize());
+    }
+
+    /**
+     * Increments the number of documents contained in the body.
+     */
+    public void addDocument() {
+        documents++;
+    }
+
+    /**
+     * Gets the number of bytes written in the body.
+     *
+     * @return The size of the body
+     */
+    public int size() {
+        return buffer.position();
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        buffer.put(bytes, offset, length);
+    }
+
+    private void ensureCapacity(int length) {
+        if (buffer.remaining() < length) {
+            // The smaller buffer is discarded so that the pool only keeps the grown ones
+            ByteBuffer larger = pool.acquire(Math.max(buffer.capacity() * 2, buffer.position() + length));
+            larger.put(buffer.flip());
+            buffer = larger;
+        }
+    }
+
+    /**
+     * Compresses the content of the body with gzip into a new body taken from the same pool.
+     * Note that this body is not released by this operation.
+     *
+     * @param level The compression level (from 0 to 9)
+     * @return The compressed body, to be released once sent
+     */
+    public ElasticsearchBulkBody compress(int level) {
+        ElasticsearchBulkBody compressed = compress(pool, content(), level);
+        compressed.documents = documents;
+        return compressed;
+    }
+
+    /**
+     * Compresses the given content with gzip into a new body taken from the given pool,
+     * without intermediate copy of the content.
+     *
+     * @param pool    The pool from which the buffers are taken
+     * @param content The content to compress
+     * @param level   The compression level (from 0 to 9)
+     * @return The compressed body, to be released once sent
+     */
+    public static ElasticsearchBulkBody compress(ElasticsearchBufferPool pool, ByteBuffer content, int level) {
+        ElasticsearchBulkBody compressed = new ElasticsearchBulkBody(pool);
+        try {
+            compressed.encoding = GZIP_ENCODING;
+            compressed.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+            CRC32 checksum = new CRC32();
+            checksum.update(content.duplicate());
+            Deflater deflater = new Deflater(level, true);
+            try {
+                deflater.setInput(content.duplicate());
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.ensureCapacity(DEFLATE_CHUNK_SIZE);
+                    deflater.deflate(compressed.buffer);
+                }
+            } finally {
+                deflater.end();
+            }
+            compressed.ensureCapacity(8);
+            compressed.buffer.order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt((int) checksum.getValue())
+                    .putInt(content.remaining())
+                    .order(ByteOrder.BIG_ENDIAN);
+        } catch (RuntimeException | Error e) {
+            // Gives back the buffer taken from the pool, the body being never returned to the caller
+            compressed.release();
+            throw e;
+        }
+        return compressed;
+    }
+
+    /**
+     * Gets a read-only view of the content written so far.
+     *
+     * @return The content of the body
+     */
+    public ByteBuffer content() {
+        return buffer.duplicate().flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * Creates an HTTP entity streaming the content of the body directly from its buffer,
+     * with the content encoding header when compressed.
+     *
+     * @return The HTTP entity
+     */
+    public HttpEntity toEntity() {
+        BodyEntity entity = new BodyEntity(content());
+        entity.setContentEncoding(encoding);
+        return entity;
+    }
+
+    /**
+     * Creates an HTTP entity streaming the given NDJSON content directly from its buffer.
+     *
+     * @param content The content of the bulk request
+     * @return The HTTP entity
+     */
+    public static HttpEntity createEntity(ByteBuffer content) {
+        return new BodyEntity(content);
+    }
+
+    /**
+     * Gives back the buffer to the pool. The body must not be used anymore afterward.
+     */
+    public void release() {
+        pool.release(buffer);
+        buffer = null;
+    }
+
+    /**
+     * HTTP entity writing a byte buffer without intermediate copy when used with the asynchronous client.
+     */
+    private static class BodyEntity extends AbstractHttpEntity implements HttpAsyncContentProducer {
+
+        private final ByteBuffer content;
+        private ByteBuffer cursor;
+
+        BodyEntity(ByteBuffer content) {
+            this.content = content;
+            setContentType(CONTENT_TYPE);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return content.remaining();
+        }
+
+        @Override
+        public InputStream getContent() {
+            ByteBuffer source = content.duplicate();
+            return new InputStream() {
+
+                @Override
+                public int read() {
+                    return source.hasRemaining() ? source.get() & 0xFF : -1;
+                }
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) {
+                    if (!source.hasRemaining()) {
+                        return -1;
+                    }
+                    int count = Math.min(length, source.remaining());
+                    source.get(bytes, offset, count);
+                    return count;
+                }
+
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream output) throws IOException {
+            getContent().transferTo(output);
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+
+        @Override
+        public void produceContent(ContentEncoder encoder, IOControl control) throws IOException {
+            if (cursor == null) {
+                cursor = content.duplicate();
+            }
+            encoder.write(cursor);
+            if (!cursor.hasRemaining()) {
+                encoder.complete();
+            }
+        }
+
+        @Override
+        public void close() {
+            cursor = null;
+        }
+
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.SerializableString;
+import tools.jackson.core.io.SerializedString;
+import tools.jackson.core.json.JsonFactory;
+import tools.jackson.databind.json.JsonMapper;
+
+/**
+ * Serializer writing bulk requests in NDJSON format (action line followed by document line)
+ * directly into pooled buffers using a streaming generator.
+ */
+public class ElasticsearchBulkSerializer {
+
+    private static final SerializableString INDEX_OPERATION = new SerializedString("index");
+    private static final SerializableString CREATE_OPERATION = new SerializedString("create");
+    private static final SerializableString INDEX_NAME = new SerializedString("_index");
+
+    private final ElasticsearchConfiguration configuration;
+    private final ElasticsearchBufferPool pool;
+    private final JsonMapper mapper;
+
+    /**
+     * Creates a new bulk serializer.
+     *
+     * @param configuration The configuration to use
+     * @param pool          The pool from which the buffers are taken
+     */
+    public ElasticsearchBulkSerializer(ElasticsearchConfiguration configuration, ElasticsearchBufferPool pool) {
+        this.configuration = configuration;
+        this.pool = pool;
+        this.mapper = JsonMapper.builder(JsonFactory.builder()
+                        .rootValueSeparator((String) null)
+                        .build())
+                .build();
+    }
+
+    /**
+     * Serializes the given documents into a bulk body.
+     *
+     * @param documents The documents to serialize
+     * @return The bulk body, to be released once sent
+     */
+    public ElasticsearchBulkBody serialize(List<Map<String, Object>> documents) {
+        ElasticsearchBulkBody body = new ElasticsearchBulkBody(pool);
+        ElasticsearchIndexResolver indexResolver = configuration.getIndexResolver();
+        long currentTime = System.currentTimeMillis();
+        try (JsonGenerator generator = mapper.createGenerator(body)) {
+            for (Map<String, Object> document : documents) {
+                writeAction(generator, indexResolver.resolve(document, currentTime));
+                if (document instanceof ElasticsearchRawDocument raw) {
+                    // Already serialized by the converter, copied as is after the pending tokens
+                    generator.flush();
+                    raw.writeTo(body);
+                    body.write('\n');
+                } else {
+                    writeDocument(generator, document);
+                }
+                body.addDocument();
+            }
+        } catch (IOException e) {
+            body.release();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            body.release();
+            throw e;
+        }
+        return body;
+    }
+
+    /**
+     * Writes the action line indexing the next document in the given index,
+     * or creating it when the index is a data stream.
+     *
+     * @param generator The generator to use
+     * @param index     The name of the index
+     */
+    protected void writeAction(JsonGenerator generator, String index) {
+        ElasticsearchRouter router = configuration.getRouter();
+        generator.writeStartObject();
+        generator.writeName(router != null && router.isDataStream(index) ? CREATE_OPERATION : INDEX_OPERATION);
+        generator.writeStartObject();
+        generator.writeName(INDEX_NAME);
+        generator.writeString(index);
+        generator.writeEndObject();
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    /**
+     * Writes the document line, using direct calls for the most common types of values.
+     * The reserved key overriding the index of the document is not written.
+     *
+     * @param generator The generator to use
+     * @param document  The document to write
+     */
+    protected void writeDocument(JsonGenerator generator, Map<String, Object> document) {
+        generator.writeStartObject();
+        for (Map.Entry<String, Object> entry : document.entrySet()) {
+            if (ElasticsearchIndexResolver.INDEX_FIELD.equals(entry.getKey())) {
+                continue;
+            }
+            generator.writeName(entry.getKey());
+            writeValue(generator, entry.getValue());
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    /**
+     * Writes a value of a document.
+     *
+     * @param generator The generator to use
+     * @param value     The value to write
+     */
+    protected void writeValue(JsonGenerator generator, Object value) {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String text) {
+            generator.writeString(text);
+        } else if (value instanceof Integer || value instanceof Long) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Boolean bool) {
+            generator.writeBoolean(bool);
+        } else {
+            generator.writePOJO(value);
+        }
+    }
+
+}
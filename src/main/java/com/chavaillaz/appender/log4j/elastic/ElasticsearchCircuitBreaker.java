@@ -0,0 +1,143 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import lombok.Getter;
+
+/**
+ * Circuit breaker shared by the deliveries of an appender, opening after consecutive failed bulk requests
+ * so that no request is sent while Elasticsearch is unreachable. While open, the health of the cluster is probed
+ * periodically (by only one of the deliveries) and the circuit is half-opened once the cluster answers,
+ * letting a single bulk request through to decide if it is closed again or reopened.
+ */
+public class ElasticsearchCircuitBreaker {
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicBoolean trial = new AtomicBoolean();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong nextProbeTime = new AtomicLong();
+    @Getter
+    private final int threshold;
+    @Getter
+    private final Duration probeInterval;
+    private final ElasticsearchMetricsListener listener;
+
+    /**
+     * Creates a new circuit breaker.
+     *
+     * @param threshold     The number of consecutive failed bulk requests opening the circuit
+     * @param probeInterval The time between two probes of the health of the cluster while open
+     * @param listener      The listener notified of the changes of state or {@code null} if none
+     */
+    public ElasticsearchCircuitBreaker(int threshold, Duration probeInterval, ElasticsearchMetricsListener listener) {
+        this.threshold = Math.max(1, threshold);
+        this.probeInterval = probeInterval;
+        this.listener = listener;
+    }
+
+    /**
+     * Gets the current state of the circuit.
+     *
+     * @return The state
+     */
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * Indicates if a bulk request can be sent. When half-open, only the first caller is allowed
+     * until the result of its request is known.
+     *
+     * @return {@code true} if the request can be sent, {@code false} if it has to be short-circuited
+     */
+    public boolean allowRequest() {
+        return switch (state.get()) {
+            case CLOSED -> true;
+            case HALF_OPEN -> trial.compareAndSet(false, true);
+            case OPEN -> false;
+        };
+    }
+
+    /**
+     * Records a bulk request having received a response, closing the circuit when half-open.
+     * Note that the circuit stays open when receiving the response of a request sent before it opened,
+     * only the trial request being able to close it.
+     */
+    public void onSuccess() {
+        failures.set(0);
+        transition(State.HALF_OPEN, State.CLOSED);
+    }
+
+    /**
+     * Records a bulk request having failed without response, opening the circuit when reaching the threshold
+     * of consecutive failures or when the circuit is half-open.
+     */
+    public void onFailure() {
+        if (failures.incrementAndGet() >= threshold) {
+            transition(State.CLOSED, State.OPEN);
+        }
+        transition(State.HALF_OPEN, State.OPEN);
+    }
+
+    /**
+     * Indicates if the health of the cluster has to be probed, being the case for only one of the callers
+     * per probe interval while the circuit is open.
+     *
+     * @return {@code true} if the caller has to probe the health of the cluster
+     */
+    public boolean isProbeDue() {
+        if (state.get() != State.OPEN) {
+            return false;
+        }
+        long now = System.nanoTime();
+        long next = nextProbeTime.get();
+        return now - next >= 0 && nextProbeTime.compareAndSet(next, now + probeInterval.toNanos());
+    }
+
+    /**
+     * Records the result of a probe of the health of the cluster, half-opening the circuit when healthy.
+     *
+     * @param healthy {@code true} if the cluster is reachable and able to index documents
+     */
+    public void onProbe(boolean healthy) {
+        if (healthy) {
+            transition(State.OPEN, State.HALF_OPEN);
+        }
+    }
+
+    private void transition(State from, State to) {
+        if (state.compareAndSet(from, to)) {
+            if (to == State.OPEN) {
+                // Reset before the circuit can be half-opened, the trial being only taken when half-open
+                trial.set(false);
+                nextProbeTime.set(System.nanoTime() + probeInterval.toNanos());
+            }
+            if (listener != null) {
+                listener.onCircuitStateChanged(to);
+            }
+        }
+    }
+
+    /**
+     * State of the circuit.
+     */
+    public enum State {
+        /**
+         * Bulk requests sent normally.
+         */
+        CLOSED,
+        /**
+         * Bulk requests short-circuited, the health of the cluster being probed.
+         */
+        OPEN,
+        /**
+         * Cluster answering again, a single bulk request being sent to decide the next state.
+         */
+        HALF_OPEN
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import static com.chavaillaz.appender.log4j.elastic.ElasticsearchUtils.createClient;
+import static com.chavaillaz.appender.log4j.elastic.ElasticsearchUtils.createSniffer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import lombok.experimental.UtilityClass;
+import org.elasticsearch.client.sniff.Sniffer;
+
+/**
+ * Registry of the Elasticsearch clients shared between the appenders using the same connection configuration,
+ * so that they are using a single connection pool. The clients are closed when released by their last user.
+ */
+@UtilityClass
+public class ElasticsearchClientRegistry {
+
+    private static final Map<List<Object>, SharedClient> CLIENTS = new HashMap<>();
+    private static final Map<ElasticsearchClient, SharedClient> USERS = new IdentityHashMap<>();
+
+    /**
+     * Gets the client shared for the connection configuration given, creating it if not existing yet.
+     * Note that each call must be followed by a call to {@link #release(ElasticsearchClient)} once not used anymore.
+     *
+     * @param configuration The configuration to use
+     * @return The shared Elasticsearch client
+     */
+    public static synchronized ElasticsearchClient acquire(ElasticsearchConfiguration configuration) {
+        SharedClient shared = CLIENTS.computeIfAbsent(getKey(configuration), key -> {
+            ElasticsearchClient client = createClient(configuration);
+            Sniffer sniffer = null;
+            if (configuration.isSniffing() && client._transport() instanceof RestClientTransport transport) {
+                sniffer = createSniffer(transport.restClient(), configuration);
+            }
+            SharedClient created = new SharedClient(key, client, sniffer);
+            USERS.put(client, created);
+            return created;
+        });
+        shared.references++;
+        return shared.client;
+    }
+
+    /**
+     * Gets the sniffer updating the nodes of the given shared client.
+     *
+     * @param client The shared Elasticsearch client
+     * @return The sniffer or {@code null} if sniffing is not enabled or the client is not shared
+     */
+    public static synchronized Sniffer getSniffer(ElasticsearchClient client) {
+        SharedClient shared = USERS.get(client);
+        return shared != null ? shared.sniffer : null;
+    }
+
+    /**
+     * Releases the given shared client, closing it if not used anymore.
+     *
+     * @param client The shared Elasticsearch client
+     * @throws IOException If the client cannot be closed
+     */
+    public static synchronized void release(ElasticsearchClient client) throws IOException {
+        SharedClient shared = USERS.get(client);
+        if (shared == null || --shared.references > 0) {
+            return;
+        }
+        CLIENTS.remove(shared.key);
+        USERS.remove(client);
+        if (shared.sniffer != null) {
+            shared.sniffer.close();
+        }
+        client.close();
+    }
+
+    private static List<Object> getKey(ElasticsearchConfiguration configuration) {
+        return List.of(
+                String.valueOf(configuration.getUrl()),
+                String.valueOf(configuration.getUser()),
+                String.valueOf(configuration.getPassword()),
+                String.valueOf(configuration.getApiKey()),
+                configuration.getCompression() == ElasticsearchCompression.GZIP && !configuration.isStreamingBulk(),
+                String.valueOf(configuration.getNodeSelector()),
+                configuration.isSniffing(),
+                String.valueOf(configuration.getSniffInterval()),
+                configuration.getMaxConnections(),
+                configuration.getMaxConnectionsPerRoute(),
+                configuration.getIoThreads(),
+                String.valueOf(configuration.getConnectTimeout()),
+                String.valueOf(configuration.getSocketTimeout()),
+                String.valueOf(configuration.getConnectionRequestTimeout()),
+                String.valueOf(configuration.getKeepAlive()));
+    }
+
+    private static class SharedClient {
+
+        private final List<Object> key;
+        private final ElasticsearchClient client;
+        private final Sniffer sniffer;
+        private int references;
+
+        SharedClient(List<Object> key, ElasticsearchClient client, Sniffer sniffer) {
+            this.key = key;
+            this.client = client;
+            this.sniffer = sniffer;
+        }
+
+    }
+
+}
@@ -0,0 +1,311 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.chavaillaz.appender.LogConfiguration;
+import com.chavaillaz.appender.log4j.LogConverter;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.util.ReadOnlyStringMap;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.SerializableString;
+import tools.jackson.core.io.SerializedString;
+import tools.jackson.databind.json.JsonMapper;
+
+/**
+ * Converter writing the events directly in JSON, following a field layout compiled once from the configuration.
+ * The names of the fields and the values of the constant fields (application, host and environment) are
+ * pre-serialized, and the documents produced are written as is in the bulk requests without intermediate map.
+ * <p>
+ * The layout is a comma-separated list of fields, each one optionally renamed with {@code field:name}:
+ * {@code datetime}, {@code host}, {@code environment}, {@code application}, {@code logger}, {@code level},
+ * {@code message}, {@code thread}, {@code mdc} (all the context data), {@code mdc.key} (a single context data key)
+ * and {@code exception} (class and stack trace, nested in an object when renamed).
+ * <p>
+ * The constant fields are left out of the layout when they are omitted in the configuration (to be added by an
+ * ingest pipeline), and the message and stack trace are truncated to the maximum lengths configured.
+ */
+public class ElasticsearchCompiledConverter implements LogConverter {
+
+    /**
+     * Layout producing the same documents as the default converter.
+     */
+    public static final String DEFAULT_LAYOUT = "datetime,host,environment,application,logger,level,message,thread,mdc,exception";
+
+    private static final JsonMapper MAPPER = JsonMapper.builder().build();
+    private static final SerializableString CLASS_NAME = new SerializedString("class");
+    private static final SerializableString STACKTRACE_NAME = new SerializedString("stacktrace");
+    private static final SerializableString FINGERPRINT_NAME = new SerializedString(ElasticsearchStackTraceCache.FINGERPRINT_FIELD);
+    private static final SerializableString OCCURRENCES_NAME = new SerializedString(ElasticsearchStackTraceCache.OCCURRENCES_FIELD);
+    private static final SerializableString SAMPLE_RATE_NAME = new SerializedString(ElasticsearchSampler.SAMPLE_RATE_FIELD);
+    private static final int MIN_ESTIMATED_SIZE = 128;
+    private static final int MAX_ESTIMATED_SIZE = 64 * 1024;
+
+    private final List<Field> fields = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private volatile int estimatedSize = MIN_ESTIMATED_SIZE;
+    private int maxMessageLength;
+    private int maxStackTraceLength;
+    private boolean dropEmptyMdc;
+    private boolean timestamped;
+    private ElasticsearchConfiguration configuration;
+
+    @Override
+    public void configure(LogConfiguration configuration) {
+        String layout = null;
+        if (configuration instanceof ElasticsearchConfiguration elasticConfiguration) {
+            this.configuration = elasticConfiguration;
+            this.maxMessageLength = elasticConfiguration.getMaxMessageLength();
+            this.maxStackTraceLength = elasticConfiguration.getMaxStackTraceLength();
+            this.dropEmptyMdc = elasticConfiguration.isDropEmptyMdc();
+            layout = elasticConfiguration.getFields();
+        }
+        compile(configuration, layout == null || layout.isBlank() ? DEFAULT_LAYOUT : layout);
+    }
+
+    /**
+     * Compiles the given field layout. Note that the context data keys conflicting with the names
+     * of the other fields are not written, in order to avoid duplicated keys in the documents.
+     *
+     * @param configuration The configuration giving the constant values
+     * @param layout        The comma-separated list of fields
+     */
+    protected void compile(LogConfiguration configuration, String layout) {
+        fields.clear();
+        names.clear();
+        names.add(SAMPLE_RATE_NAME.getValue());
+        names.add(ElasticsearchIndexResolver.INDEX_FIELD);
+        for (String definition : layout.split(",")) {
+            String[] parts = definition.trim().split(":", 2);
+            String source = parts[0].trim();
+            String name = parts.length > 1 ? parts[1].trim() : null;
+            if (source.isEmpty()) {
+                continue;
+            }
+            Field field = compileField(configuration, source, name);
+            if (field.type() == FieldType.CONSTANT && this.configuration != null && this.configuration.isOmitConstantFields()) {
+                continue;
+            }
+            fields.add(field);
+            if (field.name() != null) {
+                names.add(field.name().getValue());
+            } else if (field.type() == FieldType.EXCEPTION) {
+                names.add(CLASS_NAME.getValue());
+                names.add(STACKTRACE_NAME.getValue());
+                names.add(FINGERPRINT_NAME.getValue());
+                names.add(OCCURRENCES_NAME.getValue());
+            }
+        }
+        timestamped = names.contains(ElasticsearchIndexResolver.DATA_STREAM_TIMESTAMP_FIELD);
+    }
+
+    private Field compileField(LogConfiguration configuration, String source, String name) {
+        String lowerSource = source.toLowerCase(Locale.ROOT);
+        if (lowerSource.startsWith("mdc.")) {
+            String key = source.substring(4);
+            return new Field(FieldType.MDC_KEY, new SerializedString(name != null ? name : key), null, key);
+        }
+        FieldType type = switch (lowerSource) {
+            case "datetime" -> FieldType.DATETIME;
+            case "host", "environment", "application" -> FieldType.CONSTANT;
+            case "logger" -> FieldType.LOGGER;
+            case "level" -> FieldType.LEVEL;
+            case "message", "logmessage" -> FieldType.MESSAGE;
+            case "thread" -> FieldType.THREAD;
+            case "mdc" -> FieldType.MDC;
+            case "exception" -> FieldType.EXCEPTION;
+            default -> throw new IllegalArgumentException("Unknown field " + source + " in converter layout");
+        };
+        SerializedString serializedName = name != null ? new SerializedString(name) : null;
+        if (serializedName == null && type != FieldType.MDC && type != FieldType.EXCEPTION) {
+            serializedName = new SerializedString(type == FieldType.MESSAGE ? "logmessage" : lowerSource);
+        }
+        SerializedString value = null;
+        if (type == FieldType.CONSTANT) {
+            String constant = switch (lowerSource) {
+                case "host" -> configuration.getHost();
+                case "environment" -> configuration.getEnvironment();
+                default -> configuration.getApplication();
+            };
+            value = constant != null ? new SerializedString(constant) : null;
+            // Pre-serialize the constant value once so that the generator copies its bytes
+            if (value != null) {
+                value.asQuotedUTF8();
+            }
+        }
+        if (serializedName != null) {
+            serializedName.asQuotedUTF8();
+        }
+        return new Field(type, serializedName, value, null);
+    }
+
+    @Override
+    public Map<String, Object> convert(LogEvent event) {
+        long timestamp = event.getInstant().getEpochMillisecond();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(estimatedSize);
+        try (JsonGenerator generator = MAPPER.createGenerator(output)) {
+            generator.writeStartObject();
+            for (Field field : fields) {
+                writeField(generator, field, event, timestamp);
+            }
+            writeSampleRate(generator, event);
+            generator.writeEndObject();
+        }
+        byte[] json = output.toByteArray();
+        // Follow the recent document sizes (moving average) for the initial size of the next buffers
+        int estimation = estimatedSize;
+        estimation += (json.length + 64 - estimation) / 8;
+        estimatedSize = Math.min(Math.max(estimation, MIN_ESTIMATED_SIZE), MAX_ESTIMATED_SIZE);
+        return new ElasticsearchRawDocument(json, timestamp, getIndex(event), timestamped);
+    }
+
+    /**
+     * Gets the index overriding the default one for the given event, given in its context data
+     * with the key {@value ElasticsearchIndexResolver#INDEX_FIELD} as for the documents of the default converter.
+     *
+     * @param event The event to convert
+     * @return The name of the index or {@code null} for the default one
+     */
+    protected String getIndex(LogEvent event) {
+        ReadOnlyStringMap contextData = event.getContextData();
+        Object index = contextData != null ? contextData.getValue(ElasticsearchIndexResolver.INDEX_FIELD) : null;
+        return index instanceof String name && !name.isEmpty() ? name : null;
+    }
+
+    /**
+     * Writes the given field of the event.
+     *
+     * @param generator The generator to use
+     * @param field     The field to write
+     * @param event     The event to convert
+     * @param timestamp The time of the event in milliseconds since epoch
+     */
+    protected void writeField(JsonGenerator generator, Field field, LogEvent event, long timestamp) {
+        switch (field.type()) {
+            case DATETIME -> writeString(generator, field.name(), Instant.ofEpochMilli(timestamp).toString());
+            case CONSTANT -> {
+                if (field.value() != null) {
+                    generator.writeName(field.name());
+                    generator.writeString(field.value());
+                }
+            }
+            case LOGGER -> writeString(generator, field.name(), event.getLoggerName());
+            case LEVEL -> writeString(generator, field.name(), event.getLevel() != null ? event.getLevel().toString() : null);
+            case MESSAGE -> writeString(generator, field.name(), event.getMessage() != null
+                    ? ElasticsearchUtils.truncate(event.getMessage().getFormattedMessage(), maxMessageLength) : null);
+            case THREAD -> writeString(generator, field.name(), event.getThreadName());
+            case MDC -> writeContextData(generator, event.getContextData());
+            case MDC_KEY -> {
+                Object value = event.getContextData().getValue(field.key());
+                writeString(generator, field.name(), toContextValue(value));
+            }
+            case EXCEPTION -> writeThrowable(generator, field.name(), event.getThrown(), timestamp);
+        }
+    }
+
+    /**
+     * Writes the probability with which the event has been kept when subject to sampling.
+     *
+     * @param generator The generator to use
+     * @param event     The event to convert
+     */
+    protected void writeSampleRate(JsonGenerator generator, LogEvent event) {
+        ElasticsearchSampler sampler = configuration != null ? configuration.getSampler() : null;
+        if (sampler != null && sampler.getRate() < 1 && sampler.isSampled(event.getLevel())) {
+            generator.writeName(SAMPLE_RATE_NAME);
+            generator.writeNumber(sampler.getRate());
+        }
+    }
+
+    private static void writeString(JsonGenerator generator, SerializableString name, String value) {
+        if (value != null) {
+            generator.writeName(name);
+            generator.writeString(value);
+        }
+    }
+
+    /**
+     * Writes all the context data of the event, except the keys already used by the other fields of the layout
+     * and the empty values when they are dropped.
+     *
+     * @param generator   The generator to use
+     * @param contextData The context data of the event
+     */
+    protected void writeContextData(JsonGenerator generator, ReadOnlyStringMap contextData) {
+        if (contextData == null || contextData.isEmpty()) {
+            return;
+        }
+        contextData.forEach((key, value) -> {
+            String text = toContextValue(value);
+            if (text != null && !names.contains(key)) {
+                generator.writeName(key);
+                generator.writeString(text);
+            }
+        });
+    }
+
+    private String toContextValue(Object value) {
+        String text = value != null ? value.toString() : null;
+        return text != null && text.isEmpty() && dropEmptyMdc ? null : text;
+    }
+
+    /**
+     * Writes the class and the stack trace of the exception of the event if any, using the stack trace cache
+     * of the configuration when enabled (adding the fingerprint and the number of occurrences of the exception).
+     *
+     * @param generator The generator to use
+     * @param name      The name of the object in which to nest them or {@code null} to write them at the root
+     * @param throwable The exception of the event
+     * @param timestamp The time of the event in milliseconds since epoch
+     */
+    protected void writeThrowable(JsonGenerator generator, SerializableString name, Throwable throwable, long timestamp) {
+        if (throwable == null) {
+            return;
+        }
+        if (name != null) {
+            generator.writeName(name);
+            generator.writeStartObject();
+        }
+        writeString(generator, CLASS_NAME, throwable.getClass().getCanonicalName());
+        ElasticsearchStackTraceCache cache = configuration != null ? configuration.getStackTraceCache() : null;
+        if (cache == null) {
+            writeString(generator, STACKTRACE_NAME, ElasticsearchUtils.truncate(ElasticsearchStackTraceCache.render(throwable), maxStackTraceLength));
+        } else {
+            ElasticsearchStackTraceCache.StackTrace stackTrace = cache.get(throwable, timestamp);
+            writeString(generator, FINGERPRINT_NAME, stackTrace.fingerprint());
+            writeString(generator, STACKTRACE_NAME, ElasticsearchUtils.truncate(stackTrace.stackTrace(), maxStackTraceLength));
+            if (cache.getWindow() > 0) {
+                generator.writeName(OCCURRENCES_NAME);
+                generator.writeNumber(stackTrace.occurrences());
+            }
+        }
+        if (name != null) {
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Type of field of the layout.
+     */
+    protected enum FieldType {
+        DATETIME, CONSTANT, LOGGER, LEVEL, MESSAGE, THREAD, MDC, MDC_KEY, EXCEPTION
+    }
+
+    /**
+     * Field of the layout, with its pre-serialized name and value if constant.
+     *
+     * @param type  The type of field
+     * @param name  The name of the field
+     * @param value The value of the field if constant
+     * @param key   The context data key for a single context data field
+     */
+    protected record Field(FieldType type, SerializableString name, SerializableString value, String key) {
+    }
+
+}
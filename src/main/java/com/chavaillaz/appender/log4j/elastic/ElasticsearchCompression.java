@@ -0,0 +1,34 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+/**
+ * Compression of the bodies of the bulk requests.
+ * Note that Elasticsearch only accepts the request bodies encoded with {@code gzip} or {@code deflate}.
+ */
+public enum ElasticsearchCompression {
+
+    /**
+     * Bodies sent without compression.
+     */
+    NONE,
+
+    /**
+     * Bodies compressed with gzip.
+     */
+    GZIP;
+
+    /**
+     * Gets the compression with the given name, ignoring its case.
+     *
+     * @param name The name of the compression
+     * @return The corresponding compression or {@link #NONE} if unknown
+     */
+    public static ElasticsearchCompression of(String name) {
+        for (ElasticsearchCompression compression : values()) {
+            if (compression.name().equalsIgnoreCase(name)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+
+}
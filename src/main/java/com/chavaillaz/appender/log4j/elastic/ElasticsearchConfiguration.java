@@ -5,12 +5,15 @@ import static org.apache.commons.lang3.StringUtils.EMPTY;
 import java.lang.reflect.Constructor;
 import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.Optional;
 
 import com.chavaillaz.appender.LogConfiguration;
 import com.chavaillaz.appender.log4j.DefaultLogConverter;
 import com.chavaillaz.appender.log4j.LogConverter;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -21,18 +24,73 @@ import lombok.Setter;
 @Setter
 public class ElasticsearchConfiguration implements LogConfiguration {
 
+    private String appenderName = "elasticsearch";
     private String application;
     private String host;
     private String environment;
     private LogConverter converter;
+    private String fields;
+    private boolean omitConstantFields;
+    private int maxMessageLength;
+    private int maxStackTraceLength;
+    private boolean dropEmptyMdc;
+    private ElasticsearchStackTraceCache stackTraceCache;
+    private ElasticsearchSampler sampler;
     private String index;
     private DateTimeFormatter indexSuffix;
+    private String indexSuffixPattern;
+    private boolean indexEventTime;
+    @Setter(AccessLevel.NONE)
+    private List<ElasticsearchRoute> routes = List.of();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile Resolvers resolvers;
+    private String pipeline;
     private String url;
     private String user;
     private String password;
     private String apiKey;
+    private boolean sniffing;
+    private Duration sniffInterval;
+    private String nodeSelector;
+    private int maxConnections;
+    private int maxConnectionsPerRoute;
+    private int ioThreads;
+    private Duration connectTimeout;
+    private Duration socketTimeout;
+    private Duration connectionRequestTimeout;
+    private Duration keepAlive;
+    private boolean sharedClient;
     private long flushThreshold;
     private Duration flushInterval;
+    private long flushBytes;
+    private boolean adaptiveFlush;
+    private int maxInFlightBulks;
+    private String spoolDirectory;
+    private long spoolMaxSize;
+    private long spoolSegmentSize;
+    private Duration spoolSyncInterval = Duration.ZERO;
+    private int ringBufferSize;
+    private int bufferSize;
+    private int deliveryThreads = 1;
+    private boolean virtualThreads;
+    private ElasticsearchPartitioning deliveryPartitioning = ElasticsearchPartitioning.THREAD;
+    private ElasticsearchOverflowPolicy overflowPolicy = ElasticsearchOverflowPolicy.BLOCK;
+    private Duration overflowTimeout = Duration.ofSeconds(1);
+    private boolean streamingBulk;
+    private int bulkBufferSize;
+    private ElasticsearchCompression compression = ElasticsearchCompression.NONE;
+    private int compressionThreshold;
+    private int maxRetries;
+    private Duration retryBackoff;
+    private ElasticsearchCircuitBreaker circuitBreaker;
+    private String deadLetterIndex;
+    private String deadLetterFile;
+    private Duration shutdownTimeout = Duration.ofSeconds(10);
+    private String shutdownFile;
+    private boolean jmx;
+    @Setter(AccessLevel.NONE)
+    private final ElasticsearchMetrics metrics = new ElasticsearchMetrics();
 
     /**
      * Sets the logs converter by instantiating the given class name.
@@ -51,6 +109,68 @@ public class ElasticsearchConfiguration implements LogConfiguration {
         this.converter.configure(this);
     }
 
+    /**
+     * Sets the listener notified of the metrics by instantiating the given class name.
+     * Note that it must have an empty constructor.
+     *
+     * @param className The class name of the metrics listener
+     */
+    public void setMetricsListener(String className) {
+        try {
+            Class<?> clazz = Class.forName(className);
+            Constructor<?> constructor = clazz.getConstructor();
+            metrics.setListener((ElasticsearchMetricsListener) constructor.newInstance());
+        } catch (Exception e) {
+            metrics.setListener(null);
+        }
+    }
+
+    /**
+     * Sets the listener notified of the metrics.
+     *
+     * @param listener The metrics listener or {@code null} for none
+     */
+    public void setMetricsListener(ElasticsearchMetricsListener listener) {
+        metrics.setListener(listener);
+    }
+
+    /**
+     * Sets the compression of the bodies of the bulk requests.
+     *
+     * @param compression The name of the compression ({@code none} or {@code gzip})
+     */
+    public void setCompression(String compression) {
+        this.compression = ElasticsearchCompression.of(compression);
+    }
+
+    /**
+     * Sets the policy applied to the events appended when the buffer is full.
+     *
+     * @param overflowPolicy The name of the policy ({@code Block}, {@code DropNewest}, {@code DropOldest} or {@code DropByLevel})
+     */
+    public void setOverflowPolicy(String overflowPolicy) {
+        this.overflowPolicy = ElasticsearchOverflowPolicy.of(overflowPolicy);
+    }
+
+    /**
+     * Sets the strategy used to distribute the events between the delivery threads.
+     *
+     * @param deliveryPartitioning The name of the partitioning ({@code Thread} or {@code RoundRobin})
+     */
+    public void setDeliveryPartitioning(String deliveryPartitioning) {
+        this.deliveryPartitioning = ElasticsearchPartitioning.of(deliveryPartitioning);
+    }
+
+    /**
+     * Sets the name of the index to which send the documents.
+     *
+     * @param index The index name
+     */
+    public void setIndex(String index) {
+        this.index = index;
+        this.resolvers = null;
+    }
+
     /**
      * Sets the date suffix to use when generating the index to which send the documents.
      * Note that it has to follow a pattern recognized by {@link DateTimeFormatter}.
@@ -58,7 +178,59 @@ public class ElasticsearchConfiguration implements LogConfiguration {
      * @param indexSuffix The index suffix
      */
     public void setIndexSuffix(String indexSuffix) {
-        this.indexSuffix = DateTimeFormatter.ofPattern(Optional.ofNullable(indexSuffix).orElse(EMPTY));
+        this.indexSuffixPattern = Optional.ofNullable(indexSuffix).orElse(EMPTY);
+        this.indexSuffix = DateTimeFormatter.ofPattern(indexSuffixPattern);
+        this.resolvers = null;
+    }
+
+    /**
+     * Sets if the index suffix has to be computed using the timestamp of the events instead of the current time.
+     *
+     * @param indexEventTime {@code true} to use the timestamp of the events
+     */
+    public void setIndexEventTime(boolean indexEventTime) {
+        this.indexEventTime = indexEventTime;
+        this.resolvers = null;
+    }
+
+    /**
+     * Sets the routing rules sending the matching documents to other indices or data streams than the default one.
+     *
+     * @param routes The routing rules, in order of priority
+     */
+    public void setRoutes(List<ElasticsearchRoute> routes) {
+        this.routes = Optional.ofNullable(routes).map(List::copyOf).orElse(List.of());
+        this.resolvers = null;
+    }
+
+    /**
+     * Gets the resolver of the index names, built once from the index configuration.
+     *
+     * @return The index name resolver
+     */
+    public ElasticsearchIndexResolver getIndexResolver() {
+        return getResolvers().indexResolver();
+    }
+
+    /**
+     * Gets the router of the documents matching the routing rules, built once from the index configuration.
+     *
+     * @return The router or {@code null} if there is no routing rule
+     */
+    public ElasticsearchRouter getRouter() {
+        return getResolvers().router();
+    }
+
+    private Resolvers getResolvers() {
+        Resolvers current = resolvers;
+        if (current == null) {
+            // Built when first used rather than by each setter, the configuration being complete at this point
+            current = new Resolvers(
+                    new ElasticsearchIndexResolver(getIndex(), getIndexSuffixPattern(), isIndexEventTime(), ZoneId.systemDefault()),
+                    getRoutes().isEmpty() ? null : new ElasticsearchRouter(getRoutes(), getIndexSuffixPattern(), isIndexEventTime(), ZoneId.systemDefault()));
+            resolvers = current;
+        }
+        return current;
     }
 
     /**
@@ -88,4 +260,7 @@ public class ElasticsearchConfiguration implements LogConfiguration {
         }
     }
 
+    private record Resolvers(ElasticsearchIndexResolver indexResolver, ElasticsearchRouter router) {
+    }
+
 }
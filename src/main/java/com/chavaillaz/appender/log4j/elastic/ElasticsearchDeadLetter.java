@@ -0,0 +1,100 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import lombok.Getter;
+import tools.jackson.databind.json.JsonMapper;
+
+/**
+ * Destination of the documents permanently rejected by Elasticsearch (mapping errors for instance).
+ * The rejected documents are wrapped with the cause of their rejection and kept as JSON text,
+ * so that they can be indexed in a dedicated index and/or written in a local file whatever their content.
+ */
+public class ElasticsearchDeadLetter {
+
+    private final JsonMapper mapper = JsonMapper.builder().build();
+
+    @Getter
+    private final String index;
+
+    @Getter
+    private final Path file;
+
+    /**
+     * Creates a new dead letter destination.
+     *
+     * @param index The index in which the rejected documents are sent or {@code null} for none
+     * @param file  The file in which the rejected documents are written or {@code null} for none
+     */
+    public ElasticsearchDeadLetter(String index, String file) {
+        this.index = index;
+        this.file = file != null ? Path.of(file) : null;
+    }
+
+    /**
+     * Creates the dead letter document of a rejected document.
+     *
+     * @param document The document rejected
+     * @param item     The result of the bulk operation for the document
+     * @return The dead letter document
+     */
+    public Map<String, Object> createDocument(Map<String, Object> document, BulkResponseItem item) {
+        if (document instanceof ElasticsearchRawDocument raw) {
+            return createDocument(raw.toJson(), item);
+        }
+        return createDocument(mapper.writeValueAsString(ElasticsearchIndexResolver.getSource(document)), item);
+    }
+
+    /**
+     * Creates the dead letter document of a rejected document.
+     *
+     * @param document The document rejected as JSON text
+     * @param item     The result of the bulk operation for the document
+     * @return The dead letter document
+     */
+    public Map<String, Object> createDocument(String document, BulkResponseItem item) {
+        Map<String, Object> deadLetter = new LinkedHashMap<>();
+        if (index != null) {
+            deadLetter.put(ElasticsearchIndexResolver.INDEX_FIELD, index);
+        }
+        deadLetter.put(ElasticsearchIndexResolver.EVENT_TIMESTAMP_FIELD, Instant.now().toString());
+        deadLetter.put("index", item.index());
+        deadLetter.put("status", item.status());
+        if (item.error() != null) {
+            deadLetter.put("error", item.error().type() + ": " + item.error().reason());
+        }
+        deadLetter.put("document", document);
+        return deadLetter;
+    }
+
+    /**
+     * Writes the given dead letter documents in the file, one JSON document per line.
+     *
+     * @param documents The dead letter documents
+     * @throws IOException If the file cannot be written
+     */
+    public void write(List<Map<String, Object>> documents) throws IOException {
+        synchronized (ElasticsearchUtils.getFileLock(file)) {
+            try (Writer writer = Files.newBufferedWriter(file, UTF_8, CREATE, WRITE, APPEND)) {
+                for (Map<String, Object> document : documents) {
+                    writer.write(mapper.writeValueAsString(ElasticsearchIndexResolver.getSource(document)));
+                    writer.write('\n');
+                }
+            }
+        }
+    }
+
+}
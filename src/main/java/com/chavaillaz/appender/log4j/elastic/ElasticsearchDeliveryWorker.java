@@ -0,0 +1,203 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import lombok.Getter;
+import org.apache.logging.log4j.core.LogEvent;
+
+/**
+ * Worker owning a buffer of events (ring buffer or bounded buffer) and the thread consuming it,
+ * converting and delivering the events from this thread only.
+ */
+public class ElasticsearchDeliveryWorker {
+
+    private static final long RING_BUFFER_FULL_WAIT = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long RING_BUFFER_IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long EVENT_BUFFER_IDLE_WAIT = 100;
+    private static final int MAX_DRAIN_CAPACITY = 1024;
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    @Getter
+    private final String name;
+    private final ElasticsearchRingBuffer ringBuffer;
+    private final ElasticsearchEventBuffer eventBuffer;
+    private final ElasticsearchOverflowPolicy policy;
+    private final long overflowTimeout;
+    private final Consumer<LogEvent> delivery;
+    private final boolean virtualThread;
+    private volatile boolean consuming;
+    private volatile boolean idle;
+    private volatile Thread consumer;
+
+    /**
+     * Creates a new delivery worker using a ring buffer if its size is given, or a bounded buffer otherwise.
+     *
+     * @param name           The name of the consumer thread
+     * @param configuration  The configuration giving the overflow policy
+     * @param ringBufferSize The size of the ring buffer or zero to use a bounded buffer
+     * @param bufferSize     The capacity of the bounded buffer or zero for the default capacity ({@value DEFAULT_BUFFER_SIZE})
+     * @param delivery       The action converting and delivering each event
+     */
+    public ElasticsearchDeliveryWorker(String name, ElasticsearchConfiguration configuration, int ringBufferSize, int bufferSize, Consumer<LogEvent> delivery) {
+        this.name = name;
+        this.policy = configuration.getOverflowPolicy();
+        this.overflowTimeout = configuration.getOverflowTimeout().toNanos();
+        this.delivery = delivery;
+        this.virtualThread = configuration.isVirtualThreads();
+        if (ringBufferSize > 0) {
+            this.ringBuffer = new ElasticsearchRingBuffer(ringBufferSize);
+            this.eventBuffer = null;
+        } else {
+            this.ringBuffer = null;
+            this.eventBuffer = new ElasticsearchEventBuffer(bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE,
+                    configuration.getOverflowPolicy(), configuration.getOverflowTimeout());
+        }
+    }
+
+    /**
+     * Starts the thread consuming the events, being a virtual thread when enabled and available.
+     */
+    public void start() {
+        consuming = true;
+        consumer = ElasticsearchUtils.createThreadFactory(name, virtualThread)
+                .newThread(ringBuffer != null ? this::consumeRingBuffer : this::consumeEventBuffer);
+        consumer.start();
+    }
+
+    /**
+     * Stops the thread consuming the events, once the remaining events have been delivered.
+     *
+     * @param timeout The maximum time (ms) to wait for the thread to terminate
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void stop(long timeout) throws InterruptedException {
+        shutdown();
+        awaitTermination(timeout);
+    }
+
+    /**
+     * Requests the thread consuming the events to stop once the remaining events have been delivered.
+     */
+    public void shutdown() {
+        consuming = false;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Waits for the thread consuming the events to terminate.
+     *
+     * @param timeout The maximum time (ms) to wait, or zero to wait forever
+     * @return {@code true} if the thread is terminated
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+        if (consumer != null) {
+            consumer.join(timeout);
+        }
+        return !isAlive();
+    }
+
+    /**
+     * Indicates if the thread consuming the events is still running.
+     *
+     * @return {@code true} if the thread is running
+     */
+    public boolean isAlive() {
+        return consumer != null && consumer.isAlive();
+    }
+
+    /**
+     * Adds the given event in the buffer, applying the overflow policy when it is full.
+     * Note that the events cannot be removed from the ring buffer, so that the oldest events are never dropped.
+     *
+     * @param event The event to add
+     * @return The event dropped to respect the capacity (the given one or an older one) or {@code null} if none
+     */
+    public LogEvent offer(LogEvent event) {
+        if (eventBuffer != null) {
+            // The event possibly reused by the caller is only copied when kept
+            return eventBuffer.isRejected(event) ? event : eventBuffer.offer(event.toImmutable());
+        }
+        if (publish(event)) {
+            return null;
+        }
+        if (policy == ElasticsearchOverflowPolicy.BLOCK
+                || (policy == ElasticsearchOverflowPolicy.DROP_BY_LEVEL && ElasticsearchOverflowPolicy.isProtected(event.getLevel()))) {
+            long deadline = System.nanoTime() + overflowTimeout;
+            while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+                LockSupport.parkNanos(this, RING_BUFFER_FULL_WAIT);
+                if (publish(event)) {
+                    return null;
+                }
+            }
+        }
+        return event;
+    }
+
+    /**
+     * Publishes the given event in the ring buffer, waking up the consumer thread if it is waiting for events.
+     *
+     * @param event The event to publish
+     * @return {@code true} if published, {@code false} if the ring buffer is full
+     */
+    private boolean publish(LogEvent event) {
+        if (!ringBuffer.publish(event)) {
+            return false;
+        }
+        Thread thread = consumer;
+        if (idle && thread != null) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of events waiting in the buffer.
+     *
+     * @return The number of events
+     */
+    public int size() {
+        return ringBuffer != null ? ringBuffer.getSize() : eventBuffer.size();
+    }
+
+    /**
+     * Consumes the events published in the ring buffer until the worker is stopped,
+     * waiting without polling when empty until woken up by the next event published.
+     */
+    protected void consumeRingBuffer() {
+        while (consuming) {
+            if (ringBuffer.consume(delivery) == 0) {
+                idle = true;
+                // Checked again once idle to not miss an event published in the meantime
+                if (consuming && ringBuffer.getSize() == 0) {
+                    LockSupport.parkNanos(this, RING_BUFFER_IDLE_WAIT);
+                }
+                idle = false;
+            }
+        }
+        ringBuffer.consume(delivery);
+    }
+
+    /**
+     * Consumes the events added in the bounded buffer until the worker is stopped.
+     */
+    protected void consumeEventBuffer() {
+        List<LogEvent> events = new ArrayList<>(Math.min(eventBuffer.getCapacity(), MAX_DRAIN_CAPACITY));
+        try {
+            while (consuming || eventBuffer.size() > 0) {
+                eventBuffer.drainTo(events, EVENT_BUFFER_IDLE_WAIT, TimeUnit.MILLISECONDS);
+                events.forEach(delivery);
+                events.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import static com.chavaillaz.appender.log4j.elastic.ElasticsearchOverflowPolicy.isProtected;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.Getter;
+import org.apache.logging.log4j.core.LogEvent;
+
+/**
+ * Bounded buffer of events waiting to be delivered, applying an overflow policy when full
+ * so that the memory used stays flat when Elasticsearch cannot keep up.
+ */
+public class ElasticsearchEventBuffer {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ArrayDeque<LogEvent> events;
+    private final ElasticsearchOverflowPolicy policy;
+    private final long timeout;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    @Getter
+    private final int capacity;
+
+    /**
+     * Creates a new bounded event buffer.
+     *
+     * @param capacity The maximum number of events in the buffer
+     * @param policy   The policy applied when the buffer is full
+     * @param timeout  The maximum time to wait for some space when blocking
+     */
+    public ElasticsearchEventBuffer(int capacity, ElasticsearchOverflowPolicy policy, Duration timeout) {
+        this.capacity = Math.max(1, capacity);
+        this.events = new ArrayDeque<>(Math.min(this.capacity, INITIAL_CAPACITY));
+        this.policy = policy;
+        this.timeout = timeout.toNanos();
+    }
+
+    /**
+     * Adds the given event at the end of the buffer, applying the overflow policy if the buffer is full.
+     * Note that the event must be immutable.
+     *
+     * @param event The event to add
+     * @return The event dropped to respect the capacity (the given one or an older one) or {@code null} if none
+     */
+    public LogEvent offer(LogEvent event) {
+        lock.lock();
+        try {
+            if (events.size() < capacity) {
+                add(event);
+                return null;
+            }
+            return switch (policy) {
+                case DROP_NEWEST -> event;
+                case DROP_OLDEST -> replace(events.pollFirst(), event);
+                case DROP_BY_LEVEL -> {
+                    if (!isProtected(event.getLevel())) {
+                        yield event;
+                    }
+                    LogEvent evicted = removeOldestUnprotected();
+                    yield evicted != null ? replace(evicted, event) : await(event);
+                }
+                case BLOCK -> await(event);
+            };
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Indicates if the given event would be dropped right away by the overflow policy, the buffer being full
+     * and the policy dropping the newest events (or the ones not protected by their level).
+     * It allows not to copy an event that is dropped anyway.
+     *
+     * @param event The event to add
+     * @return {@code true} if the event would be dropped when offered
+     */
+    public boolean isRejected(LogEvent event) {
+        lock.lock();
+        try {
+            return events.size() >= capacity && (policy == ElasticsearchOverflowPolicy.DROP_NEWEST
+                    || (policy == ElasticsearchOverflowPolicy.DROP_BY_LEVEL && !isProtected(event.getLevel())));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(LogEvent event) {
+        events.addLast(event);
+        notEmpty.signal();
+    }
+
+    private LogEvent replace(LogEvent evicted, LogEvent event) {
+        add(event);
+        return evicted;
+    }
+
+    private LogEvent removeOldestUnprotected() {
+        for (Iterator<LogEvent> iterator = events.iterator(); iterator.hasNext(); ) {
+            LogEvent event = iterator.next();
+            if (!isProtected(event.getLevel())) {
+                iterator.remove();
+                return event;
+            }
+        }
+        return null;
+    }
+
+    private LogEvent await(LogEvent event) {
+        long remaining = timeout;
+        try {
+            while (events.size() >= capacity) {
+                if (remaining <= 0) {
+                    return event;
+                }
+                remaining = notFull.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return event;
+        }
+        add(event);
+        return null;
+    }
+
+    /**
+     * Moves all the events of the buffer into the given collection, waiting for at least one event if empty.
+     *
+     * @param target The collection in which the events are moved
+     * @param wait   The maximum time to wait for an event
+     * @param unit   The unit of the time to wait
+     * @return The number of events moved
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public int drainTo(Collection<LogEvent> target, long wait, TimeUnit unit) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = unit.toNanos(wait);
+            while (events.isEmpty()) {
+                if (remaining <= 0) {
+                    return 0;
+                }
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+            int count = events.size();
+            target.addAll(events);
+            events.clear();
+            notFull.signalAll();
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of events in the buffer.
+     *
+     * @return The number of events waiting to be delivered
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return events.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of positive values recorded in power of two buckets,
+ * giving the percentiles with a precision of a factor two at most.
+ */
+public class ElasticsearchHistogram {
+
+    private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records the given value, the negative values being recorded as zero.
+     *
+     * @param value The value to record
+     */
+    public void record(long value) {
+        long positive = Math.max(0, value);
+        buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(positive) - (positive == 0 ? 0 : 1));
+        count.increment();
+        sum.add(positive);
+        max.accumulateAndGet(positive, Math::max);
+    }
+
+    /**
+     * Gets the number of values recorded.
+     *
+     * @return The number of values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the sum of the values recorded.
+     *
+     * @return The sum of the values
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Gets the mean of the values recorded.
+     *
+     * @return The mean or {@code 0} if no value has been recorded
+     */
+    public double getMean() {
+        long total = getCount();
+        return total > 0 ? (double) getSum() / total : 0;
+    }
+
+    /**
+     * Gets the maximum of the values recorded.
+     *
+     * @return The maximum or {@code 0} if no value has been recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the upper bound of the bucket containing the given percentile of the values recorded.
+     *
+     * @param percentile The percentile between {@code 0} and {@code 1}
+     * @return The approximated percentile (never greater than the maximum) or {@code 0} if no value has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = getCount();
+        long rank = (long) Math.ceil(Math.min(1, Math.max(0, percentile)) * total);
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                long bound = i == Long.SIZE - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                return Math.min(bound, getMax());
+            }
+        }
+        return getMax();
+    }
+
+}
@@ -0,0 +1,223 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import static java.time.temporal.ChronoUnit.DAYS;
+import static java.time.temporal.ChronoUnit.HOURS;
+import static java.time.temporal.ChronoUnit.MILLIS;
+import static java.time.temporal.ChronoUnit.MINUTES;
+import static java.time.temporal.ChronoUnit.MONTHS;
+import static java.time.temporal.ChronoUnit.SECONDS;
+import static java.time.temporal.ChronoUnit.YEARS;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * Resolver of index names caching the name computed for the current time bucket.
+ * The size of the bucket (year, month, day, hour, ...) is derived from the smallest field of the suffix pattern,
+ * so that the suffix is only formatted again when the boundary of the bucket is crossed.
+ */
+public class ElasticsearchIndexResolver {
+
+    public static final String EVENT_TIMESTAMP_FIELD = "datetime";
+
+    /**
+     * Name of the field giving the time of the event, required in the documents sent to data streams.
+     */
+    public static final String DATA_STREAM_TIMESTAMP_FIELD = "@timestamp";
+
+    /**
+     * Reserved key of a document overriding the index in which it is sent, never written in the document source.
+     */
+    public static final String INDEX_FIELD = "_index";
+
+    private final String index;
+    private final DateTimeFormatter suffix;
+    private final boolean eventTime;
+    private final ZoneId zone;
+
+    @Getter
+    private final ChronoUnit bucketUnit;
+
+    private volatile Bucket bucket;
+
+    /**
+     * Creates a new index name resolver.
+     *
+     * @param index         The name of the index
+     * @param suffixPattern The date suffix pattern suitable for {@link DateTimeFormatter} or {@code null} for none
+     * @param eventTime     {@code true} to use the timestamp of the documents instead of the current time
+     * @param zone          The time-zone in which the suffix is formatted
+     */
+    public ElasticsearchIndexResolver(String index, String suffixPattern, boolean eventTime, ZoneId zone) {
+        this.index = index;
+        this.eventTime = eventTime;
+        this.zone = zone;
+        this.bucketUnit = getBucketUnit(suffixPattern);
+        this.suffix = bucketUnit != null ? DateTimeFormatter.ofPattern(suffixPattern).withZone(zone) : null;
+    }
+
+    /**
+     * Gets the smallest time unit used in the given date pattern.
+     *
+     * @param pattern The date pattern suitable for {@link DateTimeFormatter}
+     * @return The smallest time unit or {@code null} if the pattern does not contain any time field
+     */
+    public static ChronoUnit getBucketUnit(String pattern) {
+        ChronoUnit smallest = null;
+        boolean quoted = false;
+        for (char letter : pattern == null ? new char[0] : pattern.toCharArray()) {
+            if (letter == '\'') {
+                quoted = !quoted;
+            } else if (!quoted) {
+                ChronoUnit unit = getLetterUnit(letter);
+                if (unit != null && (smallest == null || unit.compareTo(smallest) < 0)) {
+                    smallest = unit;
+                }
+            }
+        }
+        return smallest;
+    }
+
+    private static ChronoUnit getLetterUnit(char letter) {
+        return switch (letter) {
+            case 'G', 'u', 'y' -> YEARS;
+            case 'Q', 'q', 'M', 'L' -> MONTHS;
+            // Week based fields are using days to stay aligned on any week definition
+            case 'Y', 'w', 'W', 'E', 'e', 'c', 'd', 'D', 'F' -> DAYS;
+            case 'a', 'h', 'K', 'k', 'H' -> HOURS;
+            case 'B', 'm' -> MINUTES;
+            case 's' -> SECONDS;
+            case 'V', 'v', 'z', 'O', 'X', 'x', 'Z' -> null;
+            default -> Character.isLetter(letter) ? MILLIS : null;
+        };
+    }
+
+    /**
+     * Gets the source of the given document, without the reserved key overriding its index.
+     *
+     * @param document The document to send
+     * @return The document itself or a copy of it without the reserved key if present
+     */
+    public static Map<String, Object> getSource(Map<String, Object> document) {
+        if (document instanceof ElasticsearchRawDocument || !document.containsKey(INDEX_FIELD)) {
+            return document;
+        }
+        Map<String, Object> source = new LinkedHashMap<>(document);
+        source.remove(INDEX_FIELD);
+        return source;
+    }
+
+    /**
+     * Overrides the index in which the given document is sent.
+     *
+     * @param document The document to send
+     * @param index    The name of the index
+     * @return The document with the index override
+     */
+    public static Map<String, Object> withIndex(Map<String, Object> document, String index) {
+        if (document instanceof ElasticsearchRawDocument raw) {
+            return raw.withIndex(index);
+        }
+        document.put(INDEX_FIELD, index);
+        return document;
+    }
+
+    /**
+     * Sends the given document in a data stream, adding the field {@value #DATA_STREAM_TIMESTAMP_FIELD}
+     * required by the data streams from the time of the event when absent.
+     *
+     * @param document   The document to send
+     * @param dataStream The name of the data stream
+     * @param timestamp  The time of the event in milliseconds since epoch
+     * @return The document with the index override and the timestamp field
+     */
+    public static Map<String, Object> withDataStream(Map<String, Object> document, String dataStream, long timestamp) {
+        if (document instanceof ElasticsearchRawDocument raw) {
+            return raw.withDataStream(dataStream);
+        }
+        document.putIfAbsent(DATA_STREAM_TIMESTAMP_FIELD, Instant.ofEpochMilli(timestamp).toString());
+        document.put(INDEX_FIELD, dataStream);
+        return document;
+    }
+
+    /**
+     * Attaches to the given document the index of the time of its event when the event time is used,
+     * so that the index of the documents is resolved without reading their timestamp field.
+     *
+     * @param document  The document to send
+     * @param timestamp The time of the event in milliseconds since epoch
+     * @return The document with the index override, or the same document when not needed
+     */
+    public Map<String, Object> withEventTime(Map<String, Object> document, long timestamp) {
+        if (!eventTime || bucketUnit == null || document instanceof ElasticsearchRawDocument || document.containsKey(INDEX_FIELD)) {
+            return document;
+        }
+        return withIndex(document, resolve(timestamp));
+    }
+
+    /**
+     * Resolves the index name for the given document.
+     *
+     * @param document    The document to send
+     * @param currentTime The current time in milliseconds since epoch, used when the event time is not used or unknown
+     * @return The index name
+     */
+    public String resolve(Map<String, Object> document, long currentTime) {
+        if (document instanceof ElasticsearchRawDocument raw) {
+            return raw.getIndex() != null ? raw.getIndex() : resolve(eventTime ? raw.getTimestamp() : currentTime);
+        }
+        if (document.get(INDEX_FIELD) instanceof String name) {
+            return name;
+        }
+        return resolve(currentTime);
+    }
+
+    /**
+     * Resolves the index name for the given time.
+     *
+     * @param time The time in milliseconds since epoch
+     * @return The index name
+     */
+    public String resolve(long time) {
+        if (bucketUnit == null) {
+            return index;
+        }
+
+        Bucket current = bucket;
+        if (current != null && time >= current.start() && time < current.end()) {
+            return current.name();
+        }
+
+        Bucket computed = computeBucket(time);
+        // Late documents are not replacing the bucket of the current time
+        if (current == null || time >= current.end()) {
+            bucket = computed;
+        }
+        return computed.name();
+    }
+
+    private Bucket computeBucket(long time) {
+        ZonedDateTime start = ZonedDateTime.ofInstant(Instant.ofEpochMilli(time), zone);
+        start = switch (bucketUnit) {
+            case YEARS -> start.truncatedTo(DAYS).withDayOfYear(1);
+            case MONTHS -> start.truncatedTo(DAYS).withDayOfMonth(1);
+            default -> start.truncatedTo(bucketUnit);
+        };
+        ZonedDateTime end = start.plus(1, bucketUnit);
+        return new Bucket(
+                start.toInstant().toEpochMilli(),
+                end.toInstant().toEpochMilli(),
+                index + suffix.format(start));
+    }
+
+    private record Bucket(long start, long end, String name) {
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import java.util.Map;
+
+import com.chavaillaz.appender.LogConfiguration;
+import com.chavaillaz.appender.log4j.DefaultLogConverter;
+import org.apache.logging.log4j.core.LogEvent;
+
+/**
+ * Default converter using the stack trace cache of the configuration when enabled, recording the sample rate
+ * of the sampled events and trimming the documents as configured (constant fields omitted, message and stack trace
+ * truncated, empty context data dropped), producing the same documents as {@link DefaultLogConverter} otherwise.
+ */
+public class ElasticsearchLogConverter extends DefaultLogConverter {
+
+    private ElasticsearchConfiguration configuration;
+
+    @Override
+    public void configure(LogConfiguration configuration) {
+        super.configure(configuration);
+        if (configuration instanceof ElasticsearchConfiguration elasticConfiguration) {
+            this.configuration = elasticConfiguration;
+        }
+    }
+
+    @Override
+    protected void writeBasic(Map<String, Object> json, LogEvent event) {
+        super.writeBasic(json, event);
+        if (configuration == null) {
+            return;
+        }
+        if (configuration.isOmitConstantFields()) {
+            json.remove("host");
+            json.remove("environment");
+            json.remove("application");
+        }
+        if (configuration.getMaxMessageLength() > 0 && json.get("logmessage") instanceof String message) {
+            json.put("logmessage", ElasticsearchUtils.truncate(message, configuration.getMaxMessageLength()));
+        }
+        ElasticsearchSampler sampler = configuration.getSampler();
+        if (sampler != null && sampler.getRate() < 1 && sampler.isSampled(event.getLevel())) {
+            json.put(ElasticsearchSampler.SAMPLE_RATE_FIELD, sampler.getRate());
+        }
+    }
+
+    @Override
+    protected void writeThrowable(Map<String, Object> json, LogEvent event) {
+        ElasticsearchStackTraceCache cache = configuration != null ? configuration.getStackTraceCache() : null;
+        Throwable throwable = event.getThrown();
+        if (cache == null || throwable == null) {
+            super.writeThrowable(json, event);
+            return;
+        }
+
+        ElasticsearchStackTraceCache.StackTrace stackTrace = cache.get(throwable, event.getInstant().getEpochMillisecond());
+        json.put("class", throwable.getClass().getCanonicalName());
+        json.put(ElasticsearchStackTraceCache.FINGERPRINT_FIELD, stackTrace.fingerprint());
+        if (stackTrace.stackTrace() != null) {
+            json.put("stacktrace", ElasticsearchUtils.truncate(stackTrace.stackTrace(), configuration.getMaxStackTraceLength()));
+        }
+        if (cache.getWindow() > 0) {
+            json.put(ElasticsearchStackTraceCache.OCCURRENCES_FIELD, stackTrace.occurrences());
+        }
+    }
+
+    @Override
+    protected String getStackTrace(Throwable throwable) {
+        String stackTrace = super.getStackTrace(throwable);
+        return configuration != null ? ElasticsearchUtils.truncate(stackTrace, configuration.getMaxStackTraceLength()) : stackTrace;
+    }
+
+    @Override
+    protected void writeMDC(Map<String, Object> json, LogEvent event) {
+        if (configuration == null || !configuration.isDropEmptyMdc() || event.getContextData() == null) {
+            super.writeMDC(json, event);
+            return;
+        }
+        event.getContextData().forEach((key, value) -> {
+            if (value != null && !value.toString().isEmpty()) {
+                json.put(key, value);
+            }
+        });
+    }
+
+}
@@ -1,16 +1,53 @@
 package com.chavaillaz.appender.log4j.elastic;
 
 import static com.chavaillaz.appender.log4j.elastic.ElasticsearchUtils.createClient;
-import static java.time.OffsetDateTime.now;
+import static com.chavaillaz.appender.log4j.elastic.ElasticsearchUtils.createSniffer;
+import static com.chavaillaz.appender.log4j.elastic.ElasticsearchUtils.createThreadFactory;
+import static com.chavaillaz.appender.log4j.elastic.ElasticsearchUtils.getFileLock;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.Deflater;
 
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.elasticsearch.core.BulkRequest;
 import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
 import com.chavaillaz.appender.log4j.AbstractBatchLogDelivery;
+import jakarta.json.stream.JsonParser;
 import lombok.extern.log4j.Log4j2;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.sniff.Sniffer;
 
 /**
  * Implementation of logs transmission for Elasticsearch.
@@ -19,6 +56,28 @@ import lombok.extern.log4j.Log4j2;
 public class ElasticsearchLogDelivery extends AbstractBatchLogDelivery<ElasticsearchConfiguration> {
 
     private final ElasticsearchClient client;
+    private final ElasticsearchAsyncClient asyncClient;
+    private final RestClient restClient;
+    private final Sniffer sniffer;
+    private final ClientOwnership clientOwnership;
+    private final ElasticsearchBufferPool pool;
+    private final ElasticsearchBulkSerializer serializer;
+    private final boolean streaming;
+    private final ElasticsearchSpool spool;
+    private final ElasticsearchDeadLetter deadLetter;
+    private final ElasticsearchBatchSizer batchSizer;
+    private final ScheduledExecutorService spoolReplayer;
+    private final ElasticsearchCircuitBreaker circuitBreaker;
+    private final ScheduledExecutorService healthProber;
+    private final boolean pipelined;
+    private final ExecutorService bulkHandler;
+    private final Queue<RetryBulk> retryBulks = new ConcurrentLinkedQueue<>();
+    private final int maxInFlightBulks;
+    private final Semaphore inFlightBulks;
+    private final ElasticsearchMetrics metrics;
+    private volatile boolean closed;
+    private volatile boolean spilling;
+    private volatile boolean batchKept;
 
     /**
      * Creates a new logs delivery handler for Elasticsearch.
@@ -26,48 +85,1048 @@ public class ElasticsearchLogDelivery extends AbstractBatchLogDelivery<Elasticse
      * @param configuration The configuration to use
      */
     public ElasticsearchLogDelivery(ElasticsearchConfiguration configuration) {
-        this(configuration, createClient(configuration));
+        this(configuration, configuration.isSharedClient()
+                ? ElasticsearchClientRegistry.acquire(configuration)
+                : createClient(configuration), configuration.isSharedClient() ? ClientOwnership.SHARED : ClientOwnership.OWNED,
+                null, configuration.getAppenderName(), configuration.getSpoolDirectory());
     }
 
     /**
      * Creates a new logs delivery handler for Elasticsearch.
+     * Note that the given client is closed with the delivery handler.
      *
      * @param configuration The configuration to use
      * @param client        The Elasticsearch client to use
      */
     public ElasticsearchLogDelivery(ElasticsearchConfiguration configuration, ElasticsearchClient client) {
+        this(configuration, client, ClientOwnership.OWNED, null, configuration.getAppenderName(), configuration.getSpoolDirectory());
+    }
+
+    /**
+     * Creates a new logs delivery handler for Elasticsearch using a client managed by the caller,
+     * which is not closed with the delivery handler.
+     *
+     * @param configuration  The configuration to use
+     * @param client         The Elasticsearch client to use
+     * @param sniffer        The sniffer updating the nodes of the client or {@code null} if none
+     * @param name           The name prefixing the threads of the delivery handler
+     * @param spoolDirectory The directory of the spool or {@code null} to disable it
+     */
+    public ElasticsearchLogDelivery(ElasticsearchConfiguration configuration, ElasticsearchClient client, Sniffer sniffer,
+                                    String name, String spoolDirectory) {
+        this(configuration, client, ClientOwnership.EXTERNAL, sniffer, name, spoolDirectory);
+    }
+
+    private ElasticsearchLogDelivery(ElasticsearchConfiguration configuration, ElasticsearchClient client,
+                                     ClientOwnership clientOwnership, Sniffer sniffer, String name, String spoolDirectory) {
         super(configuration);
         this.client = client;
+        this.clientOwnership = clientOwnership;
+        this.maxInFlightBulks = Math.max(1, configuration.getMaxInFlightBulks());
+        this.inFlightBulks = new Semaphore(maxInFlightBulks);
+        this.pipelined = maxInFlightBulks > 1;
+        this.bulkHandler = Executors.newSingleThreadExecutor(
+                createThreadFactory(name + "-bulk-handler", configuration.isVirtualThreads()));
+        this.metrics = configuration.getMetrics();
+        this.metrics.setInFlightBulks(this::getInFlightBulks);
+        this.asyncClient = new ElasticsearchAsyncClient(client._transport());
+        this.batchSizer = new ElasticsearchBatchSizer((int) Math.min(Integer.MAX_VALUE, configuration.getFlushThreshold()),
+                configuration.getFlushBytes(), configuration.isAdaptiveFlush());
+        this.deadLetter = new ElasticsearchDeadLetter(configuration.getDeadLetterIndex(), configuration.getDeadLetterFile());
+        this.restClient = client._transport() instanceof RestClientTransport transport ? transport.restClient() : null;
+        this.sniffer = switch (clientOwnership) {
+            case SHARED -> ElasticsearchClientRegistry.getSniffer(client);
+            case OWNED -> configuration.isSniffing() && restClient != null ? createSniffer(restClient, configuration) : null;
+            case EXTERNAL -> sniffer;
+        };
+        this.spool = restClient != null ? createSpool(configuration, spoolDirectory) : null;
+        this.streaming = configuration.isStreamingBulk() && restClient != null;
+        if (streaming || spool != null || configuration.getShutdownFile() != null) {
+            this.pool = new ElasticsearchBufferPool(maxInFlightBulks + 1, configuration.getBulkBufferSize());
+            this.serializer = new ElasticsearchBulkSerializer(configuration, pool);
+        } else {
+            this.pool = null;
+            this.serializer = null;
+        }
+        if (spool != null) {
+            long interval = configuration.getFlushInterval().toMillis();
+            this.spoolReplayer = Executors.newSingleThreadScheduledExecutor(
+                    createThreadFactory(name + "-spool-replayer", configuration.isVirtualThreads()));
+            this.spoolReplayer.scheduleWithFixedDelay(this::replaySpool, interval, interval, MILLISECONDS);
+        } else {
+            this.spoolReplayer = null;
+        }
+        this.circuitBreaker = configuration.getCircuitBreaker();
+        if (circuitBreaker != null) {
+            long interval = circuitBreaker.getProbeInterval().toMillis();
+            this.healthProber = Executors.newSingleThreadScheduledExecutor(
+                    createThreadFactory(name + "-health-prober", configuration.isVirtualThreads()));
+            this.healthProber.scheduleWithFixedDelay(this::probeHealth, interval, interval, MILLISECONDS);
+        } else {
+            this.healthProber = null;
+        }
+    }
+
+    /**
+     * Moves the records left in the spool of the given directory (by a previous configuration with another number
+     * of delivery threads) into the spool of this delivery handler, so that they are replayed.
+     * The records are moved asynchronously by the thread replaying the spool, before its first replay.
+     *
+     * @param directory The directory of the spool to move
+     */
+    public void importSpool(Path directory) {
+        if (spool == null) {
+            return;
+        }
+        spoolReplayer.execute(() -> {
+            try {
+                long documents = ElasticsearchSpool.transfer(directory, spool);
+                if (documents > 0) {
+                    log.info("{} documents moved from spool {}", documents, directory);
+                }
+            } catch (IOException e) {
+                log.error("Spool {} cannot be moved", directory, e);
+            }
+        });
+    }
+
+    private static ElasticsearchSpool createSpool(ElasticsearchConfiguration configuration, String directory) {
+        if (directory == null) {
+            return null;
+        }
+        try {
+            return new ElasticsearchSpool(Path.of(directory),
+                    configuration.getSpoolSegmentSize(), configuration.getSpoolMaxSize(),
+                    configuration.getSpoolSyncInterval());
+        } catch (IOException e) {
+            log.error("Spool cannot be opened in {}", directory, e);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the metrics of the delivery, shared with the appender.
+     *
+     * @return The metrics
+     */
+    public ElasticsearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the number of bulk requests currently sent and waiting for their response (in pipelined mode).
+     *
+     * @return The number of bulk requests in flight
+     */
+    public int getInFlightBulks() {
+        return maxInFlightBulks - inFlightBulks.availablePermits();
+    }
+
+    /**
+     * Gets the number of documents after which the batch is sent, adapted to the latency of the bulk requests
+     * when the adaptive flush is enabled, or the flush threshold otherwise.
+     *
+     * @return The effective flush threshold
+     */
+    public int getEffectiveFlushThreshold() {
+        return batchSizer.getTargetDocuments();
+    }
+
+    /**
+     * Adds the given documents to the batch and sends it when reaching the flush threshold,
+     * the effective flush threshold in adaptive mode or the number of bytes to flush.
+     *
+     * @param documents The documents to send
+     */
+    @Override
+    public synchronized void send(List<Map<String, Object>> documents) {
+        metrics.onEventsBatched(documents.size());
+        boolean full = false;
+        for (Map<String, Object> document : documents) {
+            full |= batchSizer.add(document);
+        }
+        super.send(documents);
+        if (full) {
+            flush();
+        }
+    }
+
+    private boolean isCircuitClosed() {
+        return circuitBreaker == null || circuitBreaker.getState() == ElasticsearchCircuitBreaker.State.CLOSED;
+    }
+
+    private void onBulkAnswered() {
+        if (circuitBreaker != null) {
+            circuitBreaker.onSuccess();
+        }
+    }
+
+    private void onBulkUnanswered() {
+        if (circuitBreaker != null) {
+            circuitBreaker.onFailure();
+        }
+        sniffOnFailure();
+    }
+
+    /**
+     * Updates the nodes of the client when sniffing is enabled, following a failure to reach the cluster.
+     */
+    protected void sniffOnFailure() {
+        if (sniffer != null) {
+            sniffer.sniffOnFailure();
+        }
+    }
+
+    /**
+     * Probes the health of the cluster when the circuit breaker is open and the probe is due,
+     * half-opening the circuit when the cluster is healthy.
+     */
+    protected void probeHealth() {
+        if (!closed && circuitBreaker.isProbeDue()) {
+            boolean healthy = isHealthy();
+            log.debug("Health of the cluster probed: {}", healthy ? "healthy" : "unhealthy");
+            circuitBreaker.onProbe(healthy);
+        }
+    }
+
+    /**
+     * Indicates if the cluster is reachable and able to index documents, using the cluster health endpoint
+     * (waiting for a yellow status at most). Note that a user not allowed to read the health of the cluster
+     * considers it healthy as long as it answers, the next bulk request deciding if the circuit is closed.
+     *
+     * @return {@code true} if the cluster is healthy
+     */
+    protected boolean isHealthy() {
+        try {
+            if (restClient == null) {
+                return client.ping().value();
+            }
+            Request request = new Request("GET", "/_cluster/health");
+            request.addParameter("wait_for_status", "yellow");
+            request.addParameter("timeout", "1s");
+            restClient.performRequest(request);
+            return true;
+        } catch (ResponseException e) {
+            int status = e.getResponse().getStatusLine().getStatusCode();
+            return status == 401 || status == 403;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Handles the documents not sent because the circuit breaker is open, writing them in the spool if enabled
+     * or keeping them in the batch to be sent once the circuit is closed.
+     *
+     * @param documents The documents not sent
+     * @return {@code true} if the documents have been written in the spool and can be removed from the batch
+     */
+    protected boolean shortCircuitBulk(List<Map<String, Object>> documents) {
+        metrics.onBulkShortCircuited(documents.size());
+        if (spool != null && spoolBulk(documents)) {
+            return true;
+        }
+        batchKept = true;
+        return false;
+    }
+
+    /**
+     * Indicates if a document rejected with the given status can be sent again.
+     *
+     * @param status The status of the document in the bulk response
+     * @return {@code true} for a transient rejection (too many requests or service unavailable)
+     */
+    protected static boolean isRetriable(int status) {
+        return status == 429 || status == 503;
     }
 
+    /**
+     * Gets the time to wait before sending again the documents rejected with a transient status,
+     * doubling at each attempt and randomized to avoid retrying all together.
+     *
+     * @param attempt The number of retries already done
+     * @return The time (ms) to wait
+     */
+    protected long getRetryDelay(int attempt) {
+        long delay = Math.max(1, getConfiguration().getRetryBackoff().toMillis()) << Math.min(attempt, 16);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Sends the given documents and waits for the response. Only the documents rejected with a transient status
+     * are sent again (by a later flush after an exponential backoff, without holding the batch), and the documents
+     * permanently rejected are given to the dead letter destination. When the documents cannot be sent, they are
+     * written in the spool if enabled, or kept in the batch to be sent again at the next flush.
+     *
+     * @param documents The documents to send
+     * @return {@code true} if the documents have been taken in charge and can be removed from the batch
+     */
     @Override
     protected boolean sendBulk(List<Map<String, Object>> documents) {
+        batchKept = false;
+        boolean taken;
+        if (spilling) {
+            // The documents that cannot be written are dropped rather than delaying the shutdown
+            spillBulk(documents);
+            taken = true;
+        } else if (pipelined) {
+            // Not waiting for a slot while open, the trial request being only taken once a slot is acquired
+            taken = circuitBreaker != null && circuitBreaker.getState() == ElasticsearchCircuitBreaker.State.OPEN
+                    ? shortCircuitBulk(documents)
+                    : sendPipelinedBulk(documents);
+        } else {
+            taken = deliverBulk(documents, 0);
+        }
+        if (taken) {
+            // A batch kept after a failure still counts for the flush threshold
+            batchSizer.reset();
+        }
+        return taken;
+    }
+
+    /**
+     * Sends the documents waiting to be sent again whose delay is elapsed, then the pending batch.
+     */
+    @Override
+    public synchronized void flush() {
+        sendRetries();
+        super.flush();
+    }
+
+    private boolean deliverBulk(List<Map<String, Object>> documents, int attempt) {
+        if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+            return attempt == 0 ? shortCircuitBulk(documents) : keepBulk(documents, attempt);
+        }
+
+        List<Map<String, Object>> pending;
         try {
-            BulkRequest.Builder builder = new BulkRequest.Builder();
-            for (Map<String, Object> document : documents) {
+            long start = System.nanoTime();
+            BulkResponse response = streaming ? sendStreamingBulk(documents) : sendTypedBulk(documents);
+            long roundTrip = System.nanoTime() - start;
+            onBulkAnswered();
+            log.debug("Bulk of {} elements sent in {}ms", documents.size(), response.took());
+            metrics.onBulkCompleted(documents.size(), roundTrip, response.took());
+            pending = handleBulkResponse(documents, response);
+            batchSizer.update(documents.size(), roundTrip, response.took(), pending.size());
+        } catch (Exception e) {
+            log.warn("Error when sending bulk", e);
+            metrics.onBulkFailed(documents.size(), e);
+            onBulkUnanswered();
+            return keepBulk(documents, attempt);
+        }
+
+        if (pending.isEmpty()) {
+            return true;
+        }
+        if (spilling) {
+            spillBulk(pending);
+            return true;
+        }
+        if (attempt < getConfiguration().getMaxRetries()) {
+            metrics.onEventsRetried(pending.size());
+            retryBulk(pending, attempt + 1, getRetryDelay(attempt));
+            return true;
+        }
+        log.warn("Bulk of {} elements still rejected after {} retries", pending.size(), attempt);
+        if (spool != null && spoolBulk(pending)) {
+            return true;
+        }
+        log.warn("Bulk of {} elements dropped", pending.size());
+        metrics.onEventsFailed(pending.size());
+        return true;
+    }
+
+    /**
+     * Handles the documents not answered, writing them in the spool if enabled. Otherwise, the documents
+     * of the batch are kept in it and the documents being sent again are retried after the flush interval,
+     * without counting it as a retry since they have not been rejected.
+     *
+     * @param documents The documents not answered
+     * @param attempt   The number of retries already done
+     * @return {@code true} if the documents have been taken in charge and can be removed from the batch
+     */
+    private boolean keepBulk(List<Map<String, Object>> documents, int attempt) {
+        if (spilling) {
+            spillBulk(documents);
+            return true;
+        }
+        if (spool != null && spoolBulk(documents)) {
+            return true;
+        }
+        if (attempt == 0) {
+            batchKept = true;
+            return false;
+        }
+        retryBulk(documents, attempt, getConfiguration().getFlushInterval().toMillis());
+        return true;
+    }
+
+    private void retryBulk(List<Map<String, Object>> documents, int attempt, long delay) {
+        retryBulks.add(new RetryBulk(documents, attempt, System.nanoTime() + MILLISECONDS.toNanos(delay)));
+        CompletableFuture.delayedExecutor(delay, MILLISECONDS, bulkHandler).execute(() -> {
+            synchronized (this) {
+                if (!closed) {
+                    sendRetries();
+                }
+            }
+        });
+    }
+
+    private void sendRetries() {
+        long now = System.nanoTime();
+        // Only the bulks waiting before this call, the ones retried again being added at the end
+        for (int i = retryBulks.size(); i > 0; i--) {
+            RetryBulk retry = retryBulks.poll();
+            if (retry == null) {
+                return;
+            }
+            if (spilling) {
+                spillBulk(retry.documents());
+            } else if (now - retry.time() < 0) {
+                retryBulks.add(retry);
+            } else {
+                deliverBulk(retry.documents(), retry.attempt());
+            }
+        }
+    }
+
+    private boolean awaitRetries(long deadline) {
+        while (!retryBulks.isEmpty()) {
+            long next = retryBulks.stream().mapToLong(RetryBulk::time).min().orElse(deadline);
+            long now = System.nanoTime();
+            if (deadline - now <= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(Math.max(0, Math.min(next, deadline) - now));
+            flush();
+        }
+        return true;
+    }
+
+    private void abandonRetries() {
+        RetryBulk retry;
+        while ((retry = retryBulks.poll()) != null) {
+            if (spool == null || !spoolBulk(retry.documents())) {
+                log.warn("Bulk of {} elements dropped after closing", retry.documents().size());
+                metrics.onEventsFailed(retry.documents().size());
+            }
+        }
+    }
+
+    /**
+     * Handles the result of each document of a bulk request. The documents rejected with a transient status
+     * are returned to be sent again, and the ones permanently rejected are given to the dead letter destination.
+     *
+     * @param documents The documents sent
+     * @param response  The response of the bulk request
+     * @return The documents to send again
+     */
+    protected List<Map<String, Object>> handleBulkResponse(List<Map<String, Object>> documents, BulkResponse response) {
+        if (!response.errors()) {
+            metrics.onEventsSent(documents.size());
+            return List.of();
+        }
+
+        List<Map<String, Object>> retriable = new ArrayList<>();
+        List<Map<String, Object>> rejected = new ArrayList<>();
+        List<BulkResponseItem> items = response.items();
+        for (int i = 0; i < items.size() && i < documents.size(); i++) {
+            BulkResponseItem item = items.get(i);
+            if (item.error() == null) {
+                continue;
+            }
+            if (isRetriable(item.status())) {
+                retriable.add(documents.get(i));
+            } else {
+                rejected.add(deadLetter.createDocument(documents.get(i), item));
+            }
+        }
+        metrics.onEventsSent(documents.size() - retriable.size() - rejected.size());
+        metrics.onEventsFailed(rejected.size());
+        sendDeadLetters(rejected);
+        return retriable;
+    }
+
+    /**
+     * Sends the given dead letter documents to the dead letter index and/or file if configured.
+     * The dead letter documents failing to be indexed are not sent again.
+     *
+     * @param deadLetters The dead letter documents
+     */
+    protected void sendDeadLetters(List<Map<String, Object>> deadLetters) {
+        if (deadLetters.isEmpty()) {
+            return;
+        }
+        if (deadLetter.getIndex() == null && deadLetter.getFile() == null) {
+            log.warn("Bulk of {} elements rejected and dropped: {}", deadLetters.size(), deadLetters.get(0).get("error"));
+            return;
+        }
+        if (deadLetter.getFile() != null) {
+            try {
+                deadLetter.write(deadLetters);
+            } catch (IOException e) {
+                log.error("Error when writing {} rejected elements in {}", deadLetters.size(), deadLetter.getFile(), e);
+            }
+        }
+        if (deadLetter.getIndex() != null) {
+            sendBulkAsync(deadLetters).whenComplete((response, exception) -> {
+                if (exception != null || response.errors()) {
+                    log.warn("Error when sending {} rejected elements in {}", deadLetters.size(), deadLetter.getIndex(), exception);
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends the given documents by building a typed bulk request serialized by the client.
+     *
+     * @param documents The documents to send
+     * @return The response of the bulk request
+     * @throws IOException If the request cannot be sent
+     */
+    protected BulkResponse sendTypedBulk(List<Map<String, Object>> documents) throws IOException {
+        return client.bulk(createBulkRequest(documents));
+    }
+
+    /**
+     * Creates the typed bulk request indexing the given documents.
+     *
+     * @param documents The documents to send
+     * @return The bulk request
+     */
+    protected BulkRequest createBulkRequest(List<Map<String, Object>> documents) {
+        BulkRequest.Builder builder = new BulkRequest.Builder();
+        ElasticsearchIndexResolver indexResolver = getConfiguration().getIndexResolver();
+        ElasticsearchRouter router = getConfiguration().getRouter();
+        long currentTime = System.currentTimeMillis();
+        long bytes = 0;
+        for (Map<String, Object> document : documents) {
+            String indexName = indexResolver.resolve(document, currentTime);
+            Object source = document instanceof ElasticsearchRawDocument raw
+                    ? raw.toBinaryData()
+                    : ElasticsearchIndexResolver.getSource(document);
+            if (router != null && router.isDataStream(indexName)) {
+                builder.operations(operation -> operation
+                        .create(create -> create
+                                .index(indexName)
+                                .document(source)));
+            } else {
                 builder.operations(operation -> operation
                         .index(index -> index
-                                .index(getConfiguration().generateIndexName(now()))
-                                .document(document)));
+                                .index(indexName)
+                                .document(source)));
             }
+            bytes += ElasticsearchBatchSizer.estimateSize(document);
+        }
+        if (getConfiguration().getPipeline() != null) {
+            builder.pipeline(getConfiguration().getPipeline());
+        }
+        metrics.onBulkSent(documents.size(), bytes);
+        return builder.build();
+    }
+
+    /**
+     * Creates the raw bulk request of the low-level client, with the ingest pipeline to apply if configured.
+     *
+     * @return The bulk request without body
+     */
+    protected Request createRawBulkRequest() {
+        Request request = new Request("POST", "/_bulk");
+        if (getConfiguration().getPipeline() != null) {
+            request.addParameter("pipeline", getConfiguration().getPipeline());
+        }
+        return request;
+    }
+
+    /**
+     * Sends the given documents by streaming them in NDJSON format into a pooled buffer
+     * and using it as body of a raw request through the low-level client.
+     *
+     * @param documents The documents to send
+     * @return The response of the bulk request
+     * @throws IOException If the request cannot be sent
+     */
+    protected BulkResponse sendStreamingBulk(List<Map<String, Object>> documents) throws IOException {
+        ElasticsearchBulkBody body = createBulkBody(documents);
+        try {
+            Request request = createRawBulkRequest();
+            request.setEntity(body.toEntity());
+            return parseBulkResponse(restClient.performRequest(request));
+        } finally {
+            body.release();
+        }
+    }
 
-            BulkResponse response = client.bulk(builder.build());
-            if (!response.errors()) {
-                log.debug("Bulk of {} elements sent successfully in {}ms", documents.size(), response.took());
+    /**
+     * Serializes the given documents into a bulk body, compressed when the compression is enabled
+     * and the size of the body reaches the compression threshold.
+     *
+     * @param documents The documents to serialize
+     * @return The bulk body, to be released once sent
+     */
+    protected ElasticsearchBulkBody createBulkBody(List<Map<String, Object>> documents) {
+        ElasticsearchBulkBody body = serializer.serialize(documents);
+        if (isCompressed(body.size())) {
+            ElasticsearchBulkBody serialized = body;
+            try {
+                body = serialized.compress(Deflater.BEST_SPEED);
+            } finally {
+                serialized.release();
+            }
+        }
+        metrics.onBulkSent(documents.size(), body.size());
+        return body;
+    }
+
+    private boolean isCompressed(int size) {
+        return streaming
+                && getConfiguration().getCompression() == ElasticsearchCompression.GZIP
+                && size >= getConfiguration().getCompressionThreshold();
+    }
+
+    /**
+     * Sends the given documents without waiting for the response, as long as the number of bulk requests in flight
+     * does not exceed the configured maximum. Otherwise, waits for the completion of one of them during at most
+     * the flush interval, the documents being kept in the batch to be sent at the next flush when none completes.
+     * The documents rejected with a transient status are sent again with an exponential backoff,
+     * and a failed bulk request keeps its slot and is sent again after the flush interval
+     * (at most the configured number of retries, after which its documents are dropped).
+     * When the spool is enabled, the documents are written in it instead of being kept in the batch
+     * or sent again. The responses are handled by a dedicated thread, so that the I/O threads of the client
+     * never parse the documents rejected or write them in the dead letter file.
+     * The documents are short-circuited as in blocking mode when the circuit breaker does not allow the request.
+     *
+     * @param documents The documents to send
+     * @return {@code true} if the documents have been taken in charge
+     */
+    protected boolean sendPipelinedBulk(List<Map<String, Object>> documents) {
+        boolean acquired = false;
+        try {
+            acquired = inFlightBulks.tryAcquire(getConfiguration().getFlushInterval().toMillis(), MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!acquired) {
+            if (spool != null) {
+                return spoolBulk(documents);
+            }
+            log.debug("Bulk of {} elements kept in batch with {} bulk requests in flight", documents.size(), getInFlightBulks());
+            batchKept = true;
+            return false;
+        }
+        if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+            inFlightBulks.release();
+            return shortCircuitBulk(documents);
+        }
+        sendAsyncBulk(new ArrayList<>(documents), 0, 0);
+        return true;
+    }
+
+    private void dispatchBulk(List<Map<String, Object>> documents, int attempt, int redispatches) {
+        try {
+            if (spilling) {
+                spillBulk(documents);
+                inFlightBulks.release();
+            } else if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+                metrics.onBulkShortCircuited(documents.size());
+                redispatchBulk(documents, redispatches, false);
+            } else {
+                sendAsyncBulk(documents, attempt, redispatches);
+            }
+        } catch (RuntimeException | Error e) {
+            abortBulk(documents, e);
+        }
+    }
+
+    private void sendAsyncBulk(List<Map<String, Object>> documents, int attempt, int redispatches) {
+        try {
+            long start = System.nanoTime();
+            sendBulkAsync(documents).whenCompleteAsync((response, exception) -> {
+                try {
+                    completeBulk(documents, attempt, redispatches, start, response, exception);
+                } catch (RuntimeException | Error e) {
+                    abortBulk(documents, e);
+                }
+            }, bulkHandler);
+        } catch (RuntimeException | Error e) {
+            abortBulk(documents, e);
+        }
+    }
+
+    private void completeBulk(List<Map<String, Object>> documents, int attempt, int redispatches,
+                              long start, BulkResponse response, Throwable exception) {
+        if (exception != null) {
+            log.warn("Error when sending bulk", exception);
+            metrics.onBulkFailed(documents.size(), exception instanceof Exception e ? e : new Exception(exception));
+            onBulkUnanswered();
+            redispatchBulk(documents, redispatches, true);
+            return;
+        }
+        onBulkAnswered();
+
+        long roundTrip = System.nanoTime() - start;
+        log.debug("Bulk of {} elements sent in {}ms", documents.size(), response.took());
+        metrics.onBulkCompleted(documents.size(), roundTrip, response.took());
+        List<Map<String, Object>> pending = handleBulkResponse(documents, response);
+        batchSizer.update(documents.size(), roundTrip, response.took(), pending.size());
+        if (pending.isEmpty()) {
+            inFlightBulks.release();
+        } else if (attempt < getConfiguration().getMaxRetries() && !closed) {
+            metrics.onEventsRetried(pending.size());
+            CompletableFuture.delayedExecutor(getRetryDelay(attempt), MILLISECONDS, bulkHandler)
+                    .execute(() -> dispatchBulk(pending, attempt + 1, redispatches));
+        } else {
+            log.warn("Bulk of {} elements still rejected after {} retries", pending.size(), attempt);
+            redispatchBulk(pending, redispatches, true);
+        }
+    }
+
+    /**
+     * Sends again the given documents after the flush interval, or writes them in the spool if enabled.
+     * Only the bulk requests having failed are counted for the maximum number of times they are sent again,
+     * the ones short-circuited by the circuit breaker keeping their documents until the circuit is closed.
+     *
+     * @param documents    The documents to send again
+     * @param redispatches The number of times the documents have already been sent again
+     * @param sent         {@code true} if the documents have been sent and failed, {@code false} if short-circuited
+     */
+    private void redispatchBulk(List<Map<String, Object>> documents, int redispatches, boolean sent) {
+        // The slot is always released as last step, so that it is still held when failing before
+        if (spilling) {
+            spillBulk(documents);
+            inFlightBulks.release();
+        } else if (spool != null) {
+            if (!spoolBulk(documents)) {
+                metrics.onEventsFailed(documents.size());
+            }
+            inFlightBulks.release();
+        } else if (closed) {
+            log.warn("Bulk of {} elements dropped after closing", documents.size());
+            metrics.onEventsFailed(documents.size());
+            inFlightBulks.release();
+        } else if (sent && redispatches >= getConfiguration().getMaxRetries()) {
+            log.warn("Bulk of {} elements dropped after {} failed attempts", documents.size(), redispatches + 1);
+            metrics.onEventsFailed(documents.size());
+            inFlightBulks.release();
+        } else {
+            CompletableFuture.delayedExecutor(getConfiguration().getFlushInterval().toMillis(), MILLISECONDS, bulkHandler)
+                    .execute(() -> dispatchBulk(documents, 0, sent ? redispatches + 1 : redispatches));
+        }
+    }
+
+    private void abortBulk(List<Map<String, Object>> documents, Throwable exception) {
+        log.error("Bulk of {} elements dropped after an unexpected error", documents.size(), exception);
+        metrics.onEventsFailed(documents.size());
+        inFlightBulks.release();
+    }
+
+    /**
+     * Sends the pending documents and waits for the completion of the bulk requests in flight
+     * and of the documents waiting to be sent again.
+     *
+     * @param deadline The time (as given by {@link System#nanoTime()}) until which to wait
+     * @return {@code true} if all the documents have been sent before the deadline,
+     * {@code false} if some are still in flight or kept in the batch after a failure
+     */
+    public boolean drain(long deadline) {
+        if (!flushBatch() || !awaitRetries(deadline) || !flushBatch()) {
+            return false;
+        }
+        try {
+            if (inFlightBulks.tryAcquire(maxInFlightBulks, Math.max(0, deadline - System.nanoTime()), NANOSECONDS)) {
+                inFlightBulks.release(maxInFlightBulks);
                 return true;
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Sends the pending documents, the outcome being read under the lock so that a concurrent flush
+     * (resetting it while sending) cannot be mistaken for a successful one.
+     *
+     * @return {@code true} if no documents are kept in the batch after a failure
+     */
+    private synchronized boolean flushBatch() {
+        flush();
+        return !batchKept;
+    }
+
+    /**
+     * Stops sending the documents and writes the pending ones and the ones to come in the shutdown file,
+     * or in the spool when no shutdown file is configured. The bulk requests in flight failing afterward
+     * and the bulk requests waiting to be sent again are also written there.
+     */
+    public void spill() {
+        spilling = true;
+        flush();
+    }
+
+    /**
+     * Writes the given documents in the shutdown file in NDJSON bulk format, so that they can be sent later
+     * to the bulk endpoint as is, or in the spool if no shutdown file is configured.
+     *
+     * @param documents The documents to write
+     * @return {@code true} if the documents have been written, {@code false} if they have been dropped
+     */
+    protected boolean spillBulk(List<Map<String, Object>> documents) {
+        String file = getConfiguration().getShutdownFile();
+        if (file != null) {
+            ElasticsearchBulkBody body = null;
+            try {
+                body = serializer.serialize(documents);
+                writeShutdownFile(Path.of(file), body.content());
+                metrics.onEventsSpilled(documents.size());
+                return true;
+            } catch (IOException | UncheckedIOException e) {
+                log.error("Error when writing bulk in shutdown file", e);
+            } finally {
+                if (body != null) {
+                    body.release();
+                }
+            }
+        } else if (spool != null && spoolBulk(documents)) {
+            metrics.onEventsSpilled(documents.size());
+            return true;
+        }
+        log.warn("Bulk of {} elements dropped during shutdown", documents.size());
+        metrics.onEventsFailed(documents.size());
+        return false;
+    }
+
+    private static void writeShutdownFile(Path file, ByteBuffer content) throws IOException {
+        synchronized (getFileLock(file)) {
+            try (FileChannel channel = FileChannel.open(file, CREATE, WRITE, APPEND)) {
+                while (content.hasRemaining()) {
+                    channel.write(content);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the given documents asynchronously.
+     *
+     * @param documents The documents to send
+     * @return The future response of the bulk request
+     */
+    protected CompletableFuture<BulkResponse> sendBulkAsync(List<Map<String, Object>> documents) {
+        try {
+            if (streaming) {
+                return sendStreamingBulkAsync(documents);
+            } else {
+                return asyncClient.bulk(createBulkRequest(documents));
+            }
         } catch (Exception e) {
-            log.warn("Error when sending bulk", e);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Sends the given documents asynchronously by streaming them in NDJSON format into a pooled buffer
+     * and using it as body of a raw request through the low-level client.
+     *
+     * @param documents The documents to send
+     * @return The future response of the bulk request
+     */
+    protected CompletableFuture<BulkResponse> sendStreamingBulkAsync(List<Map<String, Object>> documents) {
+        CompletableFuture<BulkResponse> future = new CompletableFuture<>();
+        ElasticsearchBulkBody body = createBulkBody(documents);
+        Request request = createRawBulkRequest();
+        request.setEntity(body.toEntity());
+        restClient.performRequestAsync(request, new ResponseListener() {
+
+            @Override
+            public void onSuccess(Response response) {
+                body.release();
+                try {
+                    future.complete(parseBulkResponse(response));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                body.release();
+                future.completeExceptionally(exception);
+            }
+
+        });
+        return future;
+    }
+
+    /**
+     * Writes the given documents in the spool in serialized form, to be replayed later.
+     *
+     * @param documents The documents to write
+     * @return {@code true} if the documents have been written in the spool
+     */
+    protected boolean spoolBulk(List<Map<String, Object>> documents) {
+        ElasticsearchBulkBody body = serializer.serialize(documents);
+        try {
+            if (spool.append(body.content(), body.getDocuments())) {
+                log.debug("Bulk of {} elements written in spool", documents.size());
+                return true;
+            }
+            log.warn("Bulk of {} elements not fitting in spool", documents.size());
+        } catch (IOException e) {
+            log.error("Error when writing bulk in spool", e);
+        } finally {
+            body.release();
+        }
+        return false;
+    }
+
+    /**
+     * Sends again the bulk bodies written in the spool, in their writing order, until the spool is empty
+     * or a request fails (the remaining ones being replayed at the next execution).
+     * The documents rejected with a transient status are written again at the end of the spool.
+     * The bulks written since the last execution are forced to disk beforehand when not yet done.
+     */
+    protected void replaySpool() {
+        try {
+            spool.sync();
+            ElasticsearchSpool.Record record;
+            while (!closed && isCircuitClosed() && (record = spool.read()) != null) {
+                long start = System.nanoTime();
+                BulkResponse response = sendRecord(record);
+                onBulkAnswered();
+                metrics.onBulkCompleted(record.documents(), System.nanoTime() - start, response.took());
+                if (!response.errors()) {
+                    metrics.onEventsSent(record.documents());
+                }
+                log.debug("Bulk of {} elements replayed from spool in {}ms", record.documents(), response.took());
+                boolean rejected = response.errors() && handleReplayResponse(record, response);
+                spool.commit(record);
+                if (rejected) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.debug("Spool replay postponed", e);
+            if (circuitBreaker != null) {
+                circuitBreaker.onFailure();
+            }
+        }
+    }
+
+    private BulkResponse sendRecord(ElasticsearchSpool.Record record) throws IOException {
+        ElasticsearchBulkBody compressed = null;
+        if (isCompressed(record.content().remaining())) {
+            compressed = ElasticsearchBulkBody.compress(pool, record.content(), Deflater.BEST_SPEED);
+        }
+        try {
+            Request request = createRawBulkRequest();
+            request.setEntity(compressed != null ? compressed.toEntity() : ElasticsearchBulkBody.createEntity(record.content()));
+            metrics.onBulkSent(record.documents(), compressed != null ? compressed.size() : record.content().remaining());
+            return parseBulkResponse(restClient.performRequest(request));
+        } finally {
+            if (compressed != null) {
+                compressed.release();
+            }
+        }
+    }
+
+    /**
+     * Handles the result of each document of a bulk body replayed from the spool. The documents rejected with a
+     * transient status are written again at the end of the spool, and the ones permanently rejected are given
+     * to the dead letter destination.
+     *
+     * @param record   The record replayed
+     * @param response The response of the bulk request
+     * @return {@code true} if some documents have been written again in the spool
+     * @throws IOException If the documents cannot be written in the spool
+     */
+    protected boolean handleReplayResponse(ElasticsearchSpool.Record record, BulkResponse response) throws IOException {
+        List<String> lines = UTF_8.decode(record.content().duplicate()).toString().lines().toList();
+        StringBuilder retriable = new StringBuilder();
+        int retriableDocuments = 0;
+        List<Map<String, Object>> rejected = new ArrayList<>();
+        List<BulkResponseItem> items = response.items();
+        for (int i = 0; i < items.size() && 2 * i + 1 < lines.size(); i++) {
+            BulkResponseItem item = items.get(i);
+            if (item.error() == null) {
+                continue;
+            }
+            if (isRetriable(item.status())) {
+                retriable.append(lines.get(2 * i)).append('\n').append(lines.get(2 * i + 1)).append('\n');
+                retriableDocuments++;
+            } else {
+                rejected.add(deadLetter.createDocument(lines.get(2 * i + 1), item));
+            }
+        }
+        metrics.onEventsSent(items.size() - retriableDocuments - rejected.size());
+        metrics.onEventsFailed(rejected.size());
+        sendDeadLetters(rejected);
+        if (retriableDocuments > 0) {
+            metrics.onEventsRetried(retriableDocuments);
+            spool.append(ByteBuffer.wrap(retriable.toString().getBytes(UTF_8)), retriableDocuments);
+            return true;
         }
         return false;
     }
 
+    /**
+     * Parses the response of a raw bulk request.
+     *
+     * @param response The response received
+     * @return The bulk response
+     * @throws IOException If the response cannot be read
+     */
+    protected BulkResponse parseBulkResponse(Response response) throws IOException {
+        JsonpMapper mapper = client._jsonpMapper();
+        try (InputStream content = response.getEntity().getContent();
+             JsonParser parser = mapper.jsonProvider().createParser(content)) {
+            return BulkResponse._DESERIALIZER.deserialize(parser, mapper);
+        }
+    }
+
     @Override
     public void close() throws Exception {
         super.close();
-        if (client != null) {
-            client.close();
+        closed = true;
+        if (!inFlightBulks.tryAcquire(maxInFlightBulks, getConfiguration().getFlushInterval().toMillis(), MILLISECONDS)) {
+            log.warn("Closing with {} bulk requests still in flight", getInFlightBulks());
+        }
+        if (healthProber != null) {
+            healthProber.shutdownNow();
         }
+        bulkHandler.shutdown();
+        if (!bulkHandler.awaitTermination(getConfiguration().getFlushInterval().toMillis(), MILLISECONDS)) {
+            log.warn("Bulk handler still running after closing");
+        }
+        abandonRetries();
+        if (spool != null) {
+            spoolReplayer.shutdown();
+            if (!spoolReplayer.awaitTermination(getConfiguration().getFlushInterval().toMillis(), MILLISECONDS)) {
+                log.warn("Spool replayer still running after closing");
+            }
+            spool.close();
+        }
+        switch (clientOwnership) {
+            case SHARED -> ElasticsearchClientRegistry.release(client);
+            case OWNED -> {
+                if (sniffer != null) {
+                    sniffer.close();
+                }
+                if (client != null) {
+                    client.close();
+                }
+            }
+            case EXTERNAL -> {
+                // Closed by the owner of the client
+            }
+        }
+    }
+
+    private record RetryBulk(List<Map<String, Object>> documents, int attempt, long time) {
+    }
+
+    private enum ClientOwnership {
+        OWNED, SHARED, EXTERNAL
     }
 
 }
@@ -0,0 +1,340 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.logging.log4j.Level;
+
+/**
+ * Metrics of an appender and its delivery handler, recording the counters and histograms exposed through JMX
+ * and forwarding each notification to the configured listener if any. The latencies are expressed in milliseconds.
+ */
+public class ElasticsearchMetrics implements ElasticsearchMetricsListener, ElasticsearchMetricsMBean {
+
+    /**
+     * Domain of the names under which the metrics are registered in JMX.
+     */
+    public static final String JMX_DOMAIN = "com.chavaillaz.appender";
+
+    private static final Map<ObjectName, ElasticsearchMetrics> REGISTERED = new HashMap<>();
+
+    private final LongAdder eventsReceived = new LongAdder();
+    private final Map<Level, LongAdder> eventsDropped = new ConcurrentHashMap<>();
+    private final LongAdder eventsSampled = new LongAdder();
+    private final LongAdder eventsSpilled = new LongAdder();
+    private final LongAdder eventsBatched = new LongAdder();
+    private final LongAdder eventsSent = new LongAdder();
+    private final LongAdder eventsFailed = new LongAdder();
+    private final LongAdder eventsRetried = new LongAdder();
+    private final LongAdder bulkFailures = new LongAdder();
+    private final LongAdder bulkShortCircuits = new LongAdder();
+    private final LongAdder circuitOpenings = new LongAdder();
+    private volatile ElasticsearchCircuitBreaker.State circuitState = ElasticsearchCircuitBreaker.State.CLOSED;
+    @Getter
+    private final ElasticsearchHistogram bulkBytesHistogram = new ElasticsearchHistogram();
+    @Getter
+    private final ElasticsearchHistogram bulkLatencyHistogram = new ElasticsearchHistogram();
+    @Getter
+    private final ElasticsearchHistogram tookHistogram = new ElasticsearchHistogram();
+
+    @Getter
+    @Setter
+    private ElasticsearchMetricsListener listener;
+    @Setter
+    private IntSupplier bufferDepth;
+    @Setter
+    private IntSupplier inFlightBulks;
+
+    /**
+     * Creates the name under which the metrics of the given appender are registered in JMX.
+     *
+     * @param appenderName The name of the appender
+     * @return The object name
+     * @throws JMException If the name is not valid
+     */
+    public static ObjectName getObjectName(String appenderName) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=ElasticsearchAppender,name=" + ObjectName.quote(appenderName));
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server, replacing the ones registered with the same name if any.
+     *
+     * @param appenderName The name of the appender
+     * @throws JMException If the metrics cannot be registered
+     */
+    public void register(String appenderName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = getObjectName(appenderName);
+        synchronized (REGISTERED) {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            REGISTERED.put(name, this);
+        }
+    }
+
+    /**
+     * Unregisters the metrics from the platform MBean server if they have not been replaced in the meantime
+     * (by the metrics of the appender with the same name, after a reconfiguration for instance).
+     *
+     * @param appenderName The name of the appender
+     * @throws JMException If the metrics cannot be unregistered
+     */
+    public void unregister(String appenderName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = getObjectName(appenderName);
+        synchronized (REGISTERED) {
+            if (REGISTERED.remove(name, this) && server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        }
+    }
+
+    @Override
+    public void onEventsReceived(int count) {
+        eventsReceived.add(count);
+        if (listener != null) {
+            listener.onEventsReceived(count);
+        }
+    }
+
+    @Override
+    public void onEventsDropped(Level level, int count) {
+        eventsDropped.computeIfAbsent(level, key -> new LongAdder()).add(count);
+        if (listener != null) {
+            listener.onEventsDropped(level, count);
+        }
+    }
+
+    @Override
+    public void onEventsSampled(Level level, int count) {
+        eventsSampled.add(count);
+        if (listener != null) {
+            listener.onEventsSampled(level, count);
+        }
+    }
+
+    @Override
+    public void onEventsSpilled(int count) {
+        eventsSpilled.add(count);
+        if (listener != null) {
+            listener.onEventsSpilled(count);
+        }
+    }
+
+    @Override
+    public void onEventsBatched(int count) {
+        eventsBatched.add(count);
+        if (listener != null) {
+            listener.onEventsBatched(count);
+        }
+    }
+
+    @Override
+    public void onBulkSent(int documents, long bytes) {
+        bulkBytesHistogram.record(bytes);
+        if (listener != null) {
+            listener.onBulkSent(documents, bytes);
+        }
+    }
+
+    @Override
+    public void onBulkCompleted(int documents, long roundTripNanos, long tookMillis) {
+        bulkLatencyHistogram.record(NANOSECONDS.toMillis(roundTripNanos));
+        tookHistogram.record(tookMillis);
+        if (listener != null) {
+            listener.onBulkCompleted(documents, roundTripNanos, tookMillis);
+        }
+    }
+
+    @Override
+    public void onBulkFailed(int documents, Exception exception) {
+        bulkFailures.increment();
+        if (listener != null) {
+            listener.onBulkFailed(documents, exception);
+        }
+    }
+
+    @Override
+    public void onEventsSent(int count) {
+        eventsSent.add(count);
+        if (listener != null) {
+            listener.onEventsSent(count);
+        }
+    }
+
+    @Override
+    public void onEventsRetried(int count) {
+        eventsRetried.add(count);
+        if (listener != null) {
+            listener.onEventsRetried(count);
+        }
+    }
+
+    @Override
+    public void onEventsFailed(int count) {
+        eventsFailed.add(count);
+        if (listener != null) {
+            listener.onEventsFailed(count);
+        }
+    }
+
+    @Override
+    public void onBulkShortCircuited(int documents) {
+        bulkShortCircuits.increment();
+        if (listener != null) {
+            listener.onBulkShortCircuited(documents);
+        }
+    }
+
+    @Override
+    public void onCircuitStateChanged(ElasticsearchCircuitBreaker.State state) {
+        circuitState = state;
+        if (state == ElasticsearchCircuitBreaker.State.OPEN) {
+            circuitOpenings.increment();
+        }
+        if (listener != null) {
+            listener.onCircuitStateChanged(state);
+        }
+    }
+
+    @Override
+    public long getEventsReceived() {
+        return eventsReceived.sum();
+    }
+
+    @Override
+    public long getEventsDropped() {
+        return eventsDropped.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    /**
+     * Gets the number of events of the given level dropped because the buffer was full.
+     *
+     * @param level The level of the events
+     * @return The number of events dropped
+     */
+    public long getEventsDropped(Level level) {
+        LongAdder dropped = eventsDropped.get(level);
+        return dropped != null ? dropped.sum() : 0;
+    }
+
+    @Override
+    public long getEventsSampled() {
+        return eventsSampled.sum();
+    }
+
+    @Override
+    public long getEventsSpilled() {
+        return eventsSpilled.sum();
+    }
+
+    @Override
+    public long getEventsBatched() {
+        return eventsBatched.sum();
+    }
+
+    @Override
+    public long getEventsSent() {
+        return eventsSent.sum();
+    }
+
+    @Override
+    public long getEventsFailed() {
+        return eventsFailed.sum();
+    }
+
+    @Override
+    public long getEventsRetried() {
+        return eventsRetried.sum();
+    }
+
+    @Override
+    public int getBufferDepth() {
+        return bufferDepth != null ? bufferDepth.getAsInt() : 0;
+    }
+
+    @Override
+    public int getInFlightBulks() {
+        return inFlightBulks != null ? inFlightBulks.getAsInt() : 0;
+    }
+
+    @Override
+    public long getBulkRequests() {
+        return bulkBytesHistogram.getCount();
+    }
+
+    @Override
+    public long getBulkFailures() {
+        return bulkFailures.sum();
+    }
+
+    @Override
+    public long getBulkShortCircuits() {
+        return bulkShortCircuits.sum();
+    }
+
+    @Override
+    public long getCircuitOpenings() {
+        return circuitOpenings.sum();
+    }
+
+    @Override
+    public String getCircuitState() {
+        return circuitState.name();
+    }
+
+    @Override
+    public long getBulkBytes() {
+        return bulkBytesHistogram.getSum();
+    }
+
+    @Override
+    public double getBulkBytesMean() {
+        return bulkBytesHistogram.getMean();
+    }
+
+    @Override
+    public double getBulkLatencyMean() {
+        return bulkLatencyHistogram.getMean();
+    }
+
+    @Override
+    public long getBulkLatencyP99() {
+        return bulkLatencyHistogram.getPercentile(0.99);
+    }
+
+    @Override
+    public long getBulkLatencyMax() {
+        return bulkLatencyHistogram.getMax();
+    }
+
+    @Override
+    public double getTookMean() {
+        return tookHistogram.getMean();
+    }
+
+    @Override
+    public long getTookP99() {
+        return tookHistogram.getPercentile(0.99);
+    }
+
+    @Override
+    public long getTookMax() {
+        return tookHistogram.getMax();
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * Listener notified of the activity of the appender and its delivery handler,
+ * to be implemented in order to bridge the metrics to a monitoring library.
+ * Note that the methods are called from the logging and delivery threads, so they must be thread-safe and fast.
+ */
+public interface ElasticsearchMetricsListener {
+
+    /**
+     * Called when events are appended.
+     *
+     * @param count The number of events
+     */
+    default void onEventsReceived(int count) {
+    }
+
+    /**
+     * Called when events are dropped because the buffer is full.
+     *
+     * @param level The level of the events
+     * @param count The number of events
+     */
+    default void onEventsDropped(Level level, int count) {
+    }
+
+    /**
+     * Called when events are discarded by the sampling.
+     *
+     * @param level The level of the events
+     * @param count The number of events
+     */
+    default void onEventsSampled(Level level, int count) {
+    }
+
+    /**
+     * Called when documents not delivered before the end of the shutdown are written in a local file.
+     *
+     * @param count The number of documents
+     */
+    default void onEventsSpilled(int count) {
+    }
+
+    /**
+     * Called when documents are added to the batch.
+     *
+     * @param count The number of documents
+     */
+    default void onEventsBatched(int count) {
+    }
+
+    /**
+     * Called when a bulk request is sent.
+     *
+     * @param documents The number of documents in the request
+     * @param bytes     The size of the body of the request (estimated when not serialized by the appender)
+     */
+    default void onBulkSent(int documents, long bytes) {
+    }
+
+    /**
+     * Called when the response of a bulk request is received.
+     *
+     * @param documents      The number of documents in the request
+     * @param roundTripNanos The time (ns) between the sending of the request and the reception of its response
+     * @param tookMillis     The time (ms) spent by Elasticsearch to process the request
+     */
+    default void onBulkCompleted(int documents, long roundTripNanos, long tookMillis) {
+    }
+
+    /**
+     * Called when a bulk request fails without response.
+     *
+     * @param documents The number of documents in the request
+     * @param exception The failure
+     */
+    default void onBulkFailed(int documents, Exception exception) {
+    }
+
+    /**
+     * Called when documents have been indexed.
+     *
+     * @param count The number of documents
+     */
+    default void onEventsSent(int count) {
+    }
+
+    /**
+     * Called when documents rejected with a transient status are sent again.
+     *
+     * @param count The number of documents
+     */
+    default void onEventsRetried(int count) {
+    }
+
+    /**
+     * Called when documents are permanently rejected or dropped after failing to be sent.
+     *
+     * @param count The number of documents
+     */
+    default void onEventsFailed(int count) {
+    }
+
+    /**
+     * Called when a bulk request is not sent because the circuit breaker is open,
+     * the documents being kept in the batch or written in the spool.
+     *
+     * @param documents The number of documents in the request
+     */
+    default void onBulkShortCircuited(int documents) {
+    }
+
+    /**
+     * Called when the state of the circuit breaker changes.
+     *
+     * @param state The new state of the circuit
+     */
+    default void onCircuitStateChanged(ElasticsearchCircuitBreaker.State state) {
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+/**
+ * Management interface exposing the metrics of an appender through JMX.
+ */
+public interface ElasticsearchMetricsMBean {
+
+    long getEventsReceived();
+
+    long getEventsDropped();
+
+    long getEventsSampled();
+
+    long getEventsSpilled();
+
+    long getEventsBatched();
+
+    long getEventsSent();
+
+    long getEventsFailed();
+
+    long getEventsRetried();
+
+    int getBufferDepth();
+
+    int getInFlightBulks();
+
+    long getBulkRequests();
+
+    long getBulkFailures();
+
+    long getBulkShortCircuits();
+
+    long getCircuitOpenings();
+
+    String getCircuitState();
+
+    long getBulkBytes();
+
+    double getBulkBytesMean();
+
+    double getBulkLatencyMean();
+
+    long getBulkLatencyP99();
+
+    long getBulkLatencyMax();
+
+    double getTookMean();
+
+    long getTookP99();
+
+    long getTookMax();
+
+}
@@ -0,0 +1,57 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * Policy applied to the events appended when the buffer in front of the delivery is full.
+ */
+public enum ElasticsearchOverflowPolicy {
+
+    /**
+     * Blocks the logging thread until some space is available, dropping the event after the overflow timeout.
+     */
+    BLOCK,
+
+    /**
+     * Drops the event appended.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Drops the oldest event of the buffer to make room for the event appended.
+     * Note that it is only supported by the bounded buffer, the ring buffer dropping the event appended instead.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drops the events less severe than {@link Level#WARN} appended, while the other ones are taking the place of
+     * the oldest less severe event of the buffer if any, or are blocking like with {@link #BLOCK} otherwise.
+     */
+    DROP_BY_LEVEL;
+
+    /**
+     * Gets the policy with the given name, ignoring its case and the underscores ({@code DropNewest} for instance).
+     *
+     * @param name The name of the policy
+     * @return The corresponding policy or {@link #BLOCK} if unknown
+     */
+    public static ElasticsearchOverflowPolicy of(String name) {
+        for (ElasticsearchOverflowPolicy policy : values()) {
+            if (policy.name().replace("_", "").equalsIgnoreCase(String.valueOf(name).replace("_", ""))) {
+                return policy;
+            }
+        }
+        return BLOCK;
+    }
+
+    /**
+     * Indicates if the events of the given level are kept in priority by the {@link #DROP_BY_LEVEL} policy.
+     *
+     * @param level The level of the event
+     * @return {@code true} for {@link Level#WARN} and more severe levels
+     */
+    public static boolean isProtected(Level level) {
+        return level != null && level.isMoreSpecificThan(Level.WARN);
+    }
+
+}
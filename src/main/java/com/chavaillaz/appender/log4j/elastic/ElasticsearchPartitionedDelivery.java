@@ -0,0 +1,152 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import static com.chavaillaz.appender.log4j.elastic.ElasticsearchUtils.createClient;
+import static com.chavaillaz.appender.log4j.elastic.ElasticsearchUtils.createSniffer;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.chavaillaz.appender.LogDelivery;
+import lombok.extern.log4j.Log4j2;
+import org.elasticsearch.client.sniff.Sniffer;
+
+/**
+ * Logs delivery for Elasticsearch split into independent partitions, each one having its own batch,
+ * serializer and spool, while sharing the same client (and connection pool).
+ * It allows several threads to convert, serialize and send documents without contending on a single batch.
+ * Note that each partition sends up to the configured maximum number of bulk requests in flight.
+ */
+@Log4j2
+public class ElasticsearchPartitionedDelivery implements LogDelivery {
+
+    private static final String PARTITION_PREFIX = "partition-";
+
+    private final ElasticsearchClient client;
+    private final Sniffer sniffer;
+    private final boolean sharedClient;
+    private final List<ElasticsearchLogDelivery> partitions = new ArrayList<>();
+
+    /**
+     * Creates a new partitioned logs delivery handler for Elasticsearch.
+     *
+     * @param configuration The configuration to use
+     * @param partitions    The number of partitions
+     */
+    public ElasticsearchPartitionedDelivery(ElasticsearchConfiguration configuration, int partitions) {
+        this.sharedClient = configuration.isSharedClient();
+        if (sharedClient) {
+            this.client = ElasticsearchClientRegistry.acquire(configuration);
+            this.sniffer = ElasticsearchClientRegistry.getSniffer(client);
+        } else {
+            this.client = createClient(configuration);
+            this.sniffer = configuration.isSniffing() && client._transport() instanceof RestClientTransport transport
+                    ? createSniffer(transport.restClient(), configuration)
+                    : null;
+        }
+        for (int i = 0; i < partitions; i++) {
+            String spoolDirectory = configuration.getSpoolDirectory() != null
+                    ? Path.of(configuration.getSpoolDirectory()).resolve(PARTITION_PREFIX + i).toString()
+                    : null;
+            this.partitions.add(new ElasticsearchLogDelivery(configuration, client, sniffer,
+                    configuration.getAppenderName() + "-" + i, spoolDirectory));
+        }
+        configuration.getMetrics().setInFlightBulks(() -> this.partitions.stream()
+                .mapToInt(ElasticsearchLogDelivery::getInFlightBulks)
+                .sum());
+        if (configuration.getSpoolDirectory() != null) {
+            importSpools(Path.of(configuration.getSpoolDirectory()), this.partitions, true);
+        }
+    }
+
+    /**
+     * Moves the records of the spools not used anymore into the spools of the given delivery handlers,
+     * so that changing the number of delivery threads does not leave records that are never replayed:
+     * the ones of the spool directory itself when partitioned, and the ones of the partitions above their number.
+     *
+     * @param directory   The spool directory configured
+     * @param deliveries  The delivery handlers of the partitions, or the single delivery handler when not partitioned
+     * @param partitioned {@code true} if the delivery handlers use the partition subdirectories
+     */
+    public static void importSpools(Path directory, List<ElasticsearchLogDelivery> deliveries, boolean partitioned) {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        if (partitioned) {
+            deliveries.get(0).importSpool(directory);
+        }
+        try (DirectoryStream<Path> subdirectories = Files.newDirectoryStream(directory, PARTITION_PREFIX + "*")) {
+            for (Path subdirectory : subdirectories) {
+                String index = subdirectory.getFileName().toString().substring(PARTITION_PREFIX.length());
+                if (!index.isEmpty() && index.length() < 10 && index.chars().allMatch(Character::isDigit)) {
+                    int partition = Integer.parseInt(index);
+                    if (!partitioned || partition >= deliveries.size()) {
+                        deliveries.get(partition % deliveries.size()).importSpool(subdirectory);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Spool partitions cannot be listed in {}", directory, e);
+        }
+    }
+
+    /**
+     * Gets the number of partitions.
+     *
+     * @return The number of partitions
+     */
+    public int getPartitionCount() {
+        return partitions.size();
+    }
+
+    /**
+     * Gets the delivery handler of the given partition.
+     *
+     * @param partition The index of the partition
+     * @return The delivery handler
+     */
+    public ElasticsearchLogDelivery getPartition(int partition) {
+        return partitions.get(Math.floorMod(partition, partitions.size()));
+    }
+
+    private ElasticsearchLogDelivery getCurrentPartition() {
+        return getPartition(System.identityHashCode(Thread.currentThread()));
+    }
+
+    @Override
+    public void send(Map<String, Object> document) {
+        getCurrentPartition().send(document);
+    }
+
+    @Override
+    public void send(List<Map<String, Object>> documents) {
+        getCurrentPartition().send(documents);
+    }
+
+    @Override
+    public void flush() {
+        partitions.forEach(ElasticsearchLogDelivery::flush);
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (ElasticsearchLogDelivery partition : partitions) {
+            partition.close();
+        }
+        if (sharedClient) {
+            ElasticsearchClientRegistry.release(client);
+            return;
+        }
+        if (sniffer != null) {
+            sniffer.close();
+        }
+        client.close();
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+/**
+ * Strategy used to distribute the events between the delivery workers.
+ */
+public enum ElasticsearchPartitioning {
+
+    /**
+     * Distributes the events by hash of the logging thread, keeping the order of the events of each thread.
+     */
+    THREAD,
+
+    /**
+     * Distributes the events in turn to each worker, balancing them evenly whatever the logging threads.
+     */
+    ROUND_ROBIN;
+
+    /**
+     * Gets the partitioning with the given name, ignoring its case and the underscores ({@code RoundRobin} for instance).
+     *
+     * @param name The name of the partitioning
+     * @return The corresponding partitioning or {@link #THREAD} if unknown
+     */
+    public static ElasticsearchPartitioning of(String name) {
+        for (ElasticsearchPartitioning partitioning : values()) {
+            if (partitioning.name().replace("_", "").equalsIgnoreCase(String.valueOf(name).replace("_", ""))) {
+                return partitioning;
+            }
+        }
+        return THREAD;
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import co.elastic.clients.util.BinaryData;
+import co.elastic.clients.util.ContentType;
+import lombok.Getter;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.json.JsonMapper;
+
+/**
+ * Document already serialized in JSON by the converter, written as is in the bulk requests.
+ * It can still be read as a map for compatibility, in which case the JSON is parsed once when first accessed.
+ */
+public class ElasticsearchRawDocument extends AbstractMap<String, Object> {
+
+    private static final JsonMapper MAPPER = JsonMapper.builder().build();
+    private static final TypeReference<LinkedHashMap<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+
+    private final byte[] json;
+    @Getter
+    private final long timestamp;
+    @Getter
+    private final String index;
+    @Getter
+    private final boolean timestamped;
+    private Map<String, Object> parsed;
+
+    /**
+     * Creates a new serialized document.
+     *
+     * @param json      The JSON object in UTF-8, on a single line
+     * @param timestamp The time of the event in milliseconds since epoch
+     */
+    public ElasticsearchRawDocument(byte[] json, long timestamp) {
+        this(json, timestamp, null);
+    }
+
+    /**
+     * Creates a new serialized document sent in the given index.
+     *
+     * @param json      The JSON object in UTF-8, on a single line
+     * @param timestamp The time of the event in milliseconds since epoch
+     * @param index     The name of the index overriding the default one or {@code null} for none
+     */
+    public ElasticsearchRawDocument(byte[] json, long timestamp, String index) {
+        this(json, timestamp, index, false);
+    }
+
+    /**
+     * Creates a new serialized document sent in the given index.
+     *
+     * @param json        The JSON object in UTF-8, on a single line
+     * @param timestamp   The time of the event in milliseconds since epoch
+     * @param index       The name of the index overriding the default one or {@code null} for none
+     * @param timestamped {@code true} if the JSON object already has the field required by the data streams
+     */
+    public ElasticsearchRawDocument(byte[] json, long timestamp, String index, boolean timestamped) {
+        this.json = json;
+        this.timestamp = timestamp;
+        this.index = index;
+        this.timestamped = timestamped;
+    }
+
+    /**
+     * Gets the same serialized document sent in the given index.
+     *
+     * @param index The name of the index overriding the default one
+     * @return The document sharing the same JSON object
+     */
+    public ElasticsearchRawDocument withIndex(String index) {
+        return new ElasticsearchRawDocument(json, timestamp, index, timestamped);
+    }
+
+    /**
+     * Gets the same serialized document sent in the given data stream, with the time of the event
+     * in the field {@value ElasticsearchIndexResolver#DATA_STREAM_TIMESTAMP_FIELD} required by the data streams.
+     *
+     * @param dataStream The name of the data stream
+     * @return The document with the timestamp field added at the beginning of the JSON object if absent
+     */
+    public ElasticsearchRawDocument withDataStream(String dataStream) {
+        if (timestamped || json.length < 2) {
+            return withIndex(dataStream);
+        }
+        byte[] field = ("{\"" + ElasticsearchIndexResolver.DATA_STREAM_TIMESTAMP_FIELD + "\":\""
+                + Instant.ofEpochMilli(timestamp) + "\"" + (json[1] == '}' ? "" : ",")).getBytes(UTF_8);
+        byte[] timestampedJson = new byte[field.length + json.length - 1];
+        System.arraycopy(field, 0, timestampedJson, 0, field.length);
+        System.arraycopy(json, 1, timestampedJson, field.length, json.length - 1);
+        return new ElasticsearchRawDocument(timestampedJson, timestamp, dataStream, true);
+    }
+
+    /**
+     * Gets the size of the serialized document.
+     *
+     * @return The number of bytes of the JSON object
+     */
+    public int getLength() {
+        return json.length;
+    }
+
+    /**
+     * Writes the serialized document in the given stream.
+     *
+     * @param output The stream in which to write
+     * @throws IOException If the document cannot be written
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(json);
+    }
+
+    /**
+     * Gets the serialized document, to be used as is in the typed requests of the client.
+     *
+     * @return The JSON object as binary data
+     */
+    public BinaryData toBinaryData() {
+        return BinaryData.of(json, ContentType.APPLICATION_JSON);
+    }
+
+    /**
+     * Gets the serialized document.
+     *
+     * @return The JSON object
+     */
+    public String toJson() {
+        return new String(json, UTF_8);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        Map<String, Object> document = parsed;
+        if (document == null) {
+            document = MAPPER.readValue(json, MAP_TYPE);
+            parsed = document;
+        }
+        return document.entrySet();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+}
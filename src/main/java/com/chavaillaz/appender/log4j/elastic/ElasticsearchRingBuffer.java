@@ -0,0 +1,105 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.MutableLogEvent;
+
+/**
+ * Bounded ring buffer of pre-allocated and reusable log events.
+ * Multiple application threads can publish events concurrently (their content being copied into the slots
+ * without allocation in steady state) while a single consumer thread drains them in publication order.
+ */
+public class ElasticsearchRingBuffer {
+
+    private final MutableLogEvent[] slots;
+    private final AtomicLongArray published;
+    private final AtomicLong producerSequence = new AtomicLong(-1);
+    private final AtomicLong consumerSequence = new AtomicLong(-1);
+    private final int mask;
+
+    /**
+     * Creates a new ring buffer.
+     *
+     * @param size The minimum number of slots, rounded up to the next power of two
+     */
+    public ElasticsearchRingBuffer(int size) {
+        int capacity = size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+        this.slots = new MutableLogEvent[capacity];
+        this.published = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new MutableLogEvent();
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Gets the number of slots of the ring buffer.
+     *
+     * @return The capacity
+     */
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * Gets the number of events published and not yet consumed.
+     *
+     * @return The number of pending events
+     */
+    public int getSize() {
+        return (int) (producerSequence.get() - consumerSequence.get());
+    }
+
+    /**
+     * Copies the given event into the next free slot.
+     *
+     * @param event The event to publish
+     * @return {@code true} if the event has been published or {@code false} if the ring buffer is full
+     */
+    public boolean publish(LogEvent event) {
+        long current;
+        long next;
+        do {
+            current = producerSequence.get();
+            next = current + 1;
+            if (next - slots.length > consumerSequence.get()) {
+                return false;
+            }
+        } while (!producerSequence.compareAndSet(current, next));
+
+        int index = (int) next & mask;
+        slots[index].initFrom(event);
+        published.lazySet(index, next);
+        return true;
+    }
+
+    /**
+     * Consumes all the events published so far, in their publication order.
+     * Note that this method must always be called from the same thread and that the events given to the consumer
+     * are only valid during the call, their slots being cleared and reused afterward.
+     *
+     * @param consumer The consumer of the events
+     * @return The number of events consumed
+     */
+    public int consume(Consumer<LogEvent> consumer) {
+        long sequence = consumerSequence.get();
+        int count = 0;
+        while (published.get((int) (sequence + 1) & mask) == sequence + 1) {
+            sequence++;
+            MutableLogEvent slot = slots[(int) sequence & mask];
+            try {
+                consumer.accept(slot);
+            } finally {
+                slot.clear();
+                consumerSequence.lazySet(sequence);
+            }
+            count++;
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import lombok.Getter;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+
+/**
+ * Routing rule sending the matching documents to another index or data stream than the default one.
+ * All the conditions given (levels, logger prefix, marker and context key) have to match.
+ */
+@Getter
+@Plugin(name = "Route", category = Node.CATEGORY, printObject = true)
+public class ElasticsearchRoute {
+
+    private final String index;
+    private final boolean dataStream;
+    private final Set<Level> levels;
+    private final String logger;
+    private final String marker;
+    private final String mdcKey;
+
+    /**
+     * Creates a new routing rule.
+     *
+     * @param index      The name of the index or data stream to which send the matching documents
+     * @param dataStream {@code true} if the index is a data stream (the date suffix being ignored)
+     * @param levels     The levels of the events separated by commas or {@code null} for all
+     * @param logger     The prefix of the logger names of the events or {@code null} for all
+     * @param marker     The name of the marker of the events or {@code null} for all
+     * @param mdcKey     The key present in the context of the events or {@code null} for all
+     * @throws IllegalArgumentException If one of the levels is unknown
+     */
+    public ElasticsearchRoute(String index, boolean dataStream, String levels, String logger, String marker, String mdcKey) {
+        this.index = index;
+        this.dataStream = dataStream;
+        this.levels = isBlank(levels) ? null : Arrays.stream(levels.split(","))
+                .map(String::trim)
+                .filter(level -> !level.isEmpty())
+                .map(level -> parseLevel(level, index))
+                .collect(Collectors.toUnmodifiableSet());
+        this.logger = isBlank(logger) ? null : logger;
+        this.marker = isBlank(marker) ? null : marker;
+        this.mdcKey = isBlank(mdcKey) ? null : mdcKey;
+    }
+
+    private static Level parseLevel(String name, String index) {
+        Level level = Level.getLevel(name.toUpperCase(Locale.ROOT));
+        if (level == null) {
+            throw new IllegalArgumentException("Unknown level " + name + " in route to " + index);
+        }
+        return level;
+    }
+
+    /**
+     * Creates a new routing rule from the configuration.
+     *
+     * @param index      The name of the index or data stream to which send the matching documents
+     * @param dataStream {@code true} if the index is a data stream
+     * @param levels     The levels of the events separated by commas
+     * @param logger     The prefix of the logger names of the events
+     * @param marker     The name of the marker of the events
+     * @param mdcKey     The key present in the context of the events
+     * @return The routing rule
+     */
+    @PluginFactory
+    public static ElasticsearchRoute createRoute(
+            @PluginAttribute("Index") @Required(message = "No index provided for the route") String index,
+            @PluginAttribute("DataStream") boolean dataStream,
+            @PluginAttribute("Levels") String levels,
+            @PluginAttribute("Logger") String logger,
+            @PluginAttribute("Marker") String marker,
+            @PluginAttribute("MdcKey") String mdcKey) {
+        return new ElasticsearchRoute(index, dataStream, levels, logger, marker, mdcKey);
+    }
+
+    /**
+     * Indicates if the events of the given logger can match this rule.
+     *
+     * @param loggerName The name of the logger
+     * @return {@code true} if the logger prefix matches
+     */
+    public boolean matches(String loggerName) {
+        return logger == null || (loggerName != null && loggerName.startsWith(logger));
+    }
+
+    /**
+     * Indicates if the given event matches the conditions of this rule not depending on its logger.
+     *
+     * @param event The event to route
+     * @return {@code true} if the level, marker and context key match
+     */
+    public boolean matches(LogEvent event) {
+        if (levels != null && !levels.contains(event.getLevel())) {
+            return false;
+        }
+        if (marker != null) {
+            Marker eventMarker = event.getMarker();
+            if (eventMarker == null || !eventMarker.isInstanceOf(marker)) {
+                return false;
+            }
+        }
+        return mdcKey == null || event.getContextData().containsKey(mdcKey);
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.core.LogEvent;
+
+/**
+ * Router selecting the index of each event from the first matching routing rule.
+ * The rules applicable to each logger are computed once and cached, and the index names are cached
+ * by the resolver of each rule, so that routing an event does not build any string.
+ */
+public class ElasticsearchRouter {
+
+    private final List<Target> targets;
+    private final Set<String> dataStreams;
+    private final boolean eventTime;
+    private final Map<String, Target[]> loggerTargets = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new router.
+     *
+     * @param routes        The routing rules, in order of priority
+     * @param suffixPattern The date suffix pattern of the indices (ignored for data streams) or {@code null} for none
+     * @param eventTime     {@code true} to use the timestamp of the events to compute the suffix
+     * @param zone          The time-zone in which the suffix is formatted
+     */
+    public ElasticsearchRouter(List<ElasticsearchRoute> routes, String suffixPattern, boolean eventTime, ZoneId zone) {
+        this.eventTime = eventTime;
+        this.targets = routes.stream()
+                .map(route -> new Target(route, new ElasticsearchIndexResolver(route.getIndex(),
+                        route.isDataStream() ? null : suffixPattern, eventTime, zone)))
+                .toList();
+        this.dataStreams = routes.stream()
+                .filter(ElasticsearchRoute::isDataStream)
+                .map(ElasticsearchRoute::getIndex)
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    /**
+     * Resolves the index of the given event.
+     *
+     * @param event The event to route
+     * @return The name of the index or data stream of the first matching rule or {@code null} if none is matching
+     */
+    public String route(LogEvent event) {
+        for (Target target : getTargets(event.getLoggerName())) {
+            if (target.route().matches(event)) {
+                return target.resolver().resolve(eventTime ? event.getTimeMillis() : System.currentTimeMillis());
+            }
+        }
+        return null;
+    }
+
+    private Target[] getTargets(String loggerName) {
+        String key = loggerName != null ? loggerName : "";
+        Target[] candidates = loggerTargets.get(key);
+        if (candidates == null) {
+            candidates = loggerTargets.computeIfAbsent(key, name -> targets.stream()
+                    .filter(target -> target.route().matches(loggerName))
+                    .toArray(Target[]::new));
+        }
+        return candidates;
+    }
+
+    /**
+     * Indicates if the given index is a data stream, in which the documents have to be created.
+     *
+     * @param index The name of the index
+     * @return {@code true} if a routing rule declares it as data stream
+     */
+    public boolean isDataStream(String index) {
+        return !dataStreams.isEmpty() && dataStreams.contains(index);
+    }
+
+    /**
+     * Gets the routing rules.
+     *
+     * @return The routing rules, in order of priority
+     */
+    public List<ElasticsearchRoute> getRoutes() {
+        return targets.stream().map(Target::route).toList();
+    }
+
+    private record Target(ElasticsearchRoute route, ElasticsearchIndexResolver resolver) {
+    }
+
+}
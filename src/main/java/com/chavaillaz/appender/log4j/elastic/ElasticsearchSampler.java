@@ -0,0 +1,109 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+
+/**
+ * Sampling stage applied on the logging threads to the events of the sampled level and less severe levels,
+ * keeping them with the given probability and limiting their rate per logger and level with token buckets.
+ * The more severe events are always kept. The decisions are taken without lock, using atomic counters only.
+ */
+public class ElasticsearchSampler {
+
+    /**
+     * Name of the field giving the probability with which the sampled events are kept.
+     */
+    public static final String SAMPLE_RATE_FIELD = "samplerate";
+
+    private final Map<String, Map<Level, Bucket>> buckets = new ConcurrentHashMap<>();
+    @Getter
+    private final Level level;
+    @Getter
+    private final double rate;
+    private final long interval;
+    private final long tolerance;
+
+    /**
+     * Creates a new sampler.
+     *
+     * @param level     The most severe level of the events sampled
+     * @param rate      The probability (between {@code 0} and {@code 1}) to keep a sampled event
+     * @param rateLimit The maximum number of events per second for each logger and level, or {@code 0} for no limit
+     */
+    public ElasticsearchSampler(Level level, double rate, long rateLimit) {
+        this.level = level;
+        this.rate = Math.max(0, Math.min(1, rate));
+        this.interval = rateLimit > 0 ? Math.max(1, TimeUnit.SECONDS.toNanos(1) / rateLimit) : 0;
+        // Allows bursts of the number of events permitted in one second
+        this.tolerance = rateLimit > 0 ? interval * rateLimit : 0;
+    }
+
+    /**
+     * Indicates if the events of the given level are subject to sampling.
+     *
+     * @param eventLevel The level of the event
+     * @return {@code true} for the sampled level and less severe levels
+     */
+    public boolean isSampled(Level eventLevel) {
+        return eventLevel != null && eventLevel.intLevel() >= level.intLevel();
+    }
+
+    /**
+     * Indicates if the given event is kept.
+     *
+     * @param event The event appended
+     * @return {@code true} if the event has to be delivered
+     */
+    public boolean accept(LogEvent event) {
+        if (!isSampled(event.getLevel())) {
+            return true;
+        }
+        if (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate) {
+            return false;
+        }
+        return interval == 0 || getBucket(event.getLoggerName(), event.getLevel()).tryAcquire(System.nanoTime());
+    }
+
+    private Bucket getBucket(String logger, Level eventLevel) {
+        Map<Level, Bucket> loggerBuckets = buckets.get(String.valueOf(logger));
+        if (loggerBuckets == null) {
+            loggerBuckets = buckets.computeIfAbsent(String.valueOf(logger), key -> new ConcurrentHashMap<>());
+        }
+        Bucket bucket = loggerBuckets.get(eventLevel);
+        if (bucket == null) {
+            bucket = loggerBuckets.computeIfAbsent(eventLevel, key -> new Bucket());
+        }
+        return bucket;
+    }
+
+    /**
+     * Token bucket implemented as a generic cell rate algorithm, keeping only the theoretical arrival time
+     * of the next event so that it can be updated atomically.
+     */
+    private class Bucket {
+
+        private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+        boolean tryAcquire(long now) {
+            while (true) {
+                long current = theoreticalArrival.get();
+                long arrival = current == Long.MIN_VALUE ? now : Math.max(current, now);
+                if (arrival - now > tolerance - interval) {
+                    return false;
+                }
+                if (theoreticalArrival.compareAndSet(current, arrival + interval)) {
+                    return true;
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,363 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Durable write-ahead spool storing serialized bulk bodies in append-only segment files.
+ * Each record is composed of a header (length, checksum and number of documents) followed by the NDJSON content.
+ * The position of the next record to replay is saved in a checkpoint file replaced atomically,
+ * and the records not fully written before a crash are detected with their checksum and skipped.
+ * The records are forced to the storage device at most once per sync interval, and when the spool is synchronized
+ * explicitly or closed.
+ */
+@Log4j2
+public class ElasticsearchSpool implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String CHECKPOINT_TEMPORARY_FILE = "checkpoint.tmp";
+    private static final int HEADER_SIZE = 12;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final long maxSize;
+    private final long syncInterval;
+    private final NavigableMap<Long, Long> segments = new TreeMap<>();
+    private FileChannel writer;
+    private long writerSegment;
+    private long readerSegment;
+    private long readerOffset;
+    private long lastSync = System.nanoTime();
+    private boolean unsynced;
+
+    @Getter
+    private long droppedDocuments;
+
+    /**
+     * Creates a new spool forcing each record to the storage device, recovering the segments and checkpoint
+     * already present in the given directory.
+     *
+     * @param directory   The directory in which the segments are stored
+     * @param segmentSize The size (bytes) after which a new segment is created
+     * @param maxSize     The maximum size (bytes) of all the segments, after which the oldest ones are dropped
+     * @throws IOException If the directory cannot be read or the segment cannot be created
+     */
+    public ElasticsearchSpool(Path directory, long segmentSize, long maxSize) throws IOException {
+        this(directory, segmentSize, maxSize, Duration.ZERO);
+    }
+
+    /**
+     * Creates a new spool, recovering the segments and checkpoint already present in the given directory.
+     *
+     * @param directory    The directory in which the segments are stored
+     * @param segmentSize  The size (bytes) after which a new segment is created
+     * @param maxSize      The maximum size (bytes) of all the segments, after which the oldest ones are dropped
+     * @param syncInterval The minimum time between two writes forced to the storage device ({@code 0} for each record)
+     * @throws IOException If the directory cannot be read or the segment cannot be created
+     */
+    public ElasticsearchSpool(Path directory, long segmentSize, long maxSize, Duration syncInterval) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        this.syncInterval = syncInterval.toNanos();
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(sequence, Files.size(file));
+            }
+        }
+        // Never append after a record possibly truncated by a crash
+        openWriter(segments.isEmpty() ? 0 : segments.lastKey() + 1);
+        readCheckpoint();
+    }
+
+    /**
+     * Moves the records not yet replayed of the spool in the given directory (left by a previous configuration)
+     * at the end of the given spool, and deletes the segments and checkpoint of the former.
+     *
+     * @param directory The directory of the spool to move
+     * @param target    The spool in which the records are appended
+     * @return The number of documents moved
+     * @throws IOException If a record cannot be read or written
+     */
+    public static long transfer(Path directory, ElasticsearchSpool target) throws IOException {
+        if (!Files.isDirectory(directory) || listFiles(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX).isEmpty()) {
+            return 0;
+        }
+        long documents = 0;
+        try (ElasticsearchSpool source = new ElasticsearchSpool(directory, Long.MAX_VALUE, Long.MAX_VALUE)) {
+            Record record;
+            while ((record = source.read()) != null) {
+                if (target.append(record.content(), record.documents())) {
+                    documents += record.documents();
+                }
+                source.commit(record);
+            }
+        }
+        for (Path file : listFiles(directory, "{" + SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX + "," + CHECKPOINT_FILE + "*}")) {
+            Files.delete(file);
+        }
+        return documents;
+    }
+
+    private static List<Path> listFiles(Path directory, String glob) throws IOException {
+        List<Path> list = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, glob)) {
+            files.forEach(list::add);
+        }
+        return list;
+    }
+
+    private Path getSegmentPath(long sequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    private void openWriter(long sequence) throws IOException {
+        writerSegment = sequence;
+        writer = FileChannel.open(getSegmentPath(sequence), CREATE, WRITE, APPEND);
+        segments.put(sequence, writer.size());
+    }
+
+    private void readCheckpoint() throws IOException {
+        readerSegment = segments.firstKey();
+        readerOffset = 0;
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpoint)) {
+            ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+            long segment = content.getLong();
+            long offset = content.getLong();
+            if (segments.containsKey(segment)) {
+                readerSegment = segment;
+                readerOffset = offset;
+            }
+        }
+        // Remove the segments already replayed but not deleted before a crash
+        while (segments.firstKey() < readerSegment) {
+            deleteSegment(segments.firstKey());
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        Path temporary = directory.resolve(CHECKPOINT_TEMPORARY_FILE);
+        try (FileChannel channel = FileChannel.open(temporary, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.allocate(16).putLong(readerSegment).putLong(readerOffset).flip());
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT_FILE), ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    private void deleteSegment(long sequence) throws IOException {
+        Files.deleteIfExists(getSegmentPath(sequence));
+        segments.remove(sequence);
+    }
+
+    /**
+     * Gets the size of all the segments.
+     *
+     * @return The size (bytes) used on disk
+     */
+    public synchronized long getSize() {
+        return segments.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * Indicates if all the records appended have been replayed.
+     *
+     * @return {@code true} if there is no record to replay
+     */
+    public synchronized boolean isEmpty() {
+        return readerSegment == writerSegment && readerOffset >= segments.get(writerSegment);
+    }
+
+    /**
+     * Appends a serialized bulk body at the end of the spool, dropping the oldest segments if the maximum size is reached.
+     *
+     * @param content   The serialized bulk body
+     * @param documents The number of documents in the bulk body
+     * @return {@code true} if the record has been written or {@code false} if it does not fit in the spool
+     * @throws IOException If the record cannot be written
+     */
+    public synchronized boolean append(ByteBuffer content, int documents) throws IOException {
+        int length = content.remaining();
+        long recordSize = HEADER_SIZE + (long) length;
+        if (segments.get(writerSegment) > 0 && segments.get(writerSegment) + recordSize > segmentSize) {
+            sync();
+            writer.close();
+            openWriter(writerSegment + 1);
+        }
+        while (getSize() + recordSize > maxSize && segments.firstKey() != writerSegment) {
+            dropOldestSegment();
+        }
+        if (getSize() + recordSize > maxSize) {
+            droppedDocuments += documents;
+            return false;
+        }
+
+        CRC32 checksum = new CRC32();
+        checksum.update(content.duplicate());
+        ByteBuffer[] record = {
+                ByteBuffer.allocate(HEADER_SIZE).putInt(length).putInt((int) checksum.getValue()).putInt(documents).flip(),
+                content.duplicate()
+        };
+        while (record[1].hasRemaining()) {
+            writer.write(record);
+        }
+        segments.merge(writerSegment, recordSize, Long::sum);
+        unsynced = true;
+        if (System.nanoTime() - lastSync >= syncInterval) {
+            sync();
+        }
+        return true;
+    }
+
+    /**
+     * Forces the records appended since the last synchronization to the storage device.
+     *
+     * @throws IOException If the records cannot be forced
+     */
+    public synchronized void sync() throws IOException {
+        if (unsynced) {
+            writer.force(false);
+            unsynced = false;
+        }
+        lastSync = System.nanoTime();
+    }
+
+    private void dropOldestSegment() throws IOException {
+        long oldest = segments.firstKey();
+        long documents = 0;
+        long size = segments.get(oldest);
+        try (FileChannel channel = FileChannel.open(getSegmentPath(oldest), READ)) {
+            long offset = oldest == readerSegment ? readerOffset : 0;
+            Record record;
+            // Counting until the first record not fully written, the next ones being unreadable anyway
+            while (offset + HEADER_SIZE <= size && (record = readRecord(channel, oldest, offset, size)) != null) {
+                offset = record.next();
+                documents += record.documents();
+            }
+        }
+        log.warn("Spool full, dropping segment {} with {} documents", oldest, documents);
+        droppedDocuments += documents;
+        deleteSegment(oldest);
+        if (oldest == readerSegment) {
+            readerSegment = segments.firstKey();
+            readerOffset = 0;
+            writeCheckpoint();
+        }
+    }
+
+    /**
+     * Reads the next record to replay, without removing it from the spool.
+     *
+     * @return The next record or {@code null} if there is none
+     * @throws IOException If the record cannot be read
+     */
+    public synchronized Record read() throws IOException {
+        while (true) {
+            long size = segments.get(readerSegment);
+            if (readerOffset + HEADER_SIZE <= size) {
+                Record record;
+                try (FileChannel channel = FileChannel.open(getSegmentPath(readerSegment), READ)) {
+                    record = readRecord(channel, readerSegment, readerOffset, size);
+                }
+                if (record != null) {
+                    return record;
+                }
+                log.warn("Skipping incomplete record in spool segment {} at offset {}", readerSegment, readerOffset);
+            }
+            if (readerSegment == writerSegment) {
+                return null;
+            }
+            deleteSegment(readerSegment);
+            readerSegment = segments.firstKey();
+            readerOffset = 0;
+            writeCheckpoint();
+        }
+    }
+
+    private static Record readRecord(FileChannel channel, long segment, long offset, long size) throws IOException {
+        ByteBuffer header = readFully(channel, ByteBuffer.allocate(HEADER_SIZE), offset);
+        int length = header.getInt();
+        int checksum = header.getInt();
+        int documents = header.getInt();
+        long next = offset + HEADER_SIZE + length;
+        if (length < 0 || next > size) {
+            return null;
+        }
+
+        ByteBuffer content = readFully(channel, ByteBuffer.allocate(length), offset + HEADER_SIZE);
+        CRC32 computed = new CRC32();
+        computed.update(content.duplicate());
+        if ((int) computed.getValue() != checksum) {
+            return null;
+        }
+        return new Record(segment, next, content, documents);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Marks the given record as replayed and saves the checkpoint.
+     *
+     * @param record The record replayed
+     * @throws IOException If the checkpoint cannot be saved
+     */
+    public synchronized void commit(Record record) throws IOException {
+        if (record.segment() == readerSegment) {
+            readerOffset = record.next();
+            writeCheckpoint();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        writer.close();
+    }
+
+    /**
+     * Record read from the spool.
+     *
+     * @param segment   The sequence of the segment containing the record
+     * @param next      The offset of the next record in the segment
+     * @param content   The serialized bulk body
+     * @param documents The number of documents in the bulk body
+     */
+    public record Record(long segment, long next, ByteBuffer content, int documents) {
+    }
+
+}
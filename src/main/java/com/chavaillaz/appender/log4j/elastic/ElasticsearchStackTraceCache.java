@@ -0,0 +1,242 @@
+package com.chavaillaz.appender.log4j.elastic;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.Getter;
+
+/**
+ * Bounded cache of the rendered stack frames, keyed by a stable fingerprint of the exceptions (type and frames
+ * of the exception, its causes and suppressed exceptions), so that the frames of an exception logged repeatedly
+ * are rendered once. The lines giving the type and message of each exception are rendered for each occurrence,
+ * so that the stack trace given always contains the messages of the occurrence.
+ * When a deduplication window is given, the stack trace is only given for the first occurrence of an exception
+ * in the window, the following ones being identified by their fingerprint and number of occurrences.
+ */
+public class ElasticsearchStackTraceCache {
+
+    /**
+     * Name of the field giving the fingerprint of the exception.
+     */
+    public static final String FINGERPRINT_FIELD = "fingerprint";
+
+    /**
+     * Name of the field giving the number of occurrences of the exception in the deduplication window.
+     */
+    public static final String OCCURRENCES_FIELD = "occurrences";
+
+    private static final int MAX_CAUSES = 32;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final Map<String, Entry> entries;
+    @Getter
+    private final long window;
+
+    /**
+     * Creates a new stack trace cache.
+     *
+     * @param maxSize The maximum number of stack traces kept, the least recently used being evicted
+     * @param window  The deduplication window, or zero to always give the stack trace
+     */
+    public ElasticsearchStackTraceCache(int maxSize, Duration window) {
+        this.window = window.toMillis();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+
+        };
+    }
+
+    /**
+     * Computes the fingerprint of the given exception from the type and frames of the exception, its causes
+     * and suppressed exceptions, independent of their messages.
+     *
+     * @param throwable The exception
+     * @return The fingerprint in hexadecimal
+     */
+    public static String fingerprint(Throwable throwable) {
+        return String.format("%016x", hash(FNV_OFFSET, throwable, Collections.newSetFromMap(new IdentityHashMap<>())));
+    }
+
+    private static long hash(long hash, Throwable throwable, Set<Throwable> seen) {
+        if (seen.size() >= MAX_CAUSES || !seen.add(throwable)) {
+            return hash;
+        }
+        hash = hash(hash, throwable.getClass().getName());
+        for (StackTraceElement frame : throwable.getStackTrace()) {
+            hash = hash(hash, frame.getClassName());
+            hash = hash(hash, frame.getMethodName());
+            hash = hash * FNV_PRIME ^ frame.getLineNumber();
+        }
+        for (Throwable suppressed : throwable.getSuppressed()) {
+            hash = hash(hash * FNV_PRIME, suppressed, seen);
+        }
+        return throwable.getCause() != null ? hash(hash, throwable.getCause(), seen) : hash;
+    }
+
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Renders the stack trace of the given exception.
+     *
+     * @param throwable The exception
+     * @return The stack trace
+     */
+    public static String render(Throwable throwable) {
+        StringWriter stackTrace = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(stackTrace));
+        return stackTrace.toString();
+    }
+
+    /**
+     * Renders the given exception in the format of {@link Throwable#printStackTrace()}, split into the lines
+     * giving the type and message of each exception (and its causes and suppressed exceptions)
+     * and the blocks of frames following each of them.
+     *
+     * @param throwable The exception
+     * @param headers   The list in which adding the line of each exception
+     * @param frames    The list in which adding the frames of each exception or {@code null} to skip them
+     */
+    private static void render(Throwable throwable, List<String> headers, List<String> frames) {
+        render(throwable, "", "", new StackTraceElement[0], Collections.newSetFromMap(new IdentityHashMap<>()), headers, frames);
+    }
+
+    private static void render(Throwable throwable, String caption, String prefix, StackTraceElement[] enclosing,
+                               Set<Throwable> seen, List<String> headers, List<String> frames) {
+        if (!seen.add(throwable)) {
+            headers.add(prefix + caption + "[CIRCULAR REFERENCE: " + throwable + "]" + LINE_SEPARATOR);
+            if (frames != null) {
+                frames.add("");
+            }
+            return;
+        }
+        headers.add(prefix + caption + throwable + LINE_SEPARATOR);
+        StackTraceElement[] trace = throwable.getStackTrace();
+        if (frames != null) {
+            // Frames in common with the enclosing exception are only counted, as done by the JDK
+            int last = trace.length - 1;
+            for (int i = enclosing.length - 1; last >= 0 && i >= 0 && trace[last].equals(enclosing[i]); i--) {
+                last--;
+            }
+            StringBuilder block = new StringBuilder();
+            for (int i = 0; i <= last; i++) {
+                block.append(prefix).append("\tat ").append(trace[i]).append(LINE_SEPARATOR);
+            }
+            if (last < trace.length - 1) {
+                block.append(prefix).append("\t... ").append(trace.length - 1 - last).append(" more").append(LINE_SEPARATOR);
+            }
+            frames.add(block.toString());
+        }
+        for (Throwable suppressed : throwable.getSuppressed()) {
+            render(suppressed, "Suppressed: ", prefix + "\t", trace, seen, headers, frames);
+        }
+        if (throwable.getCause() != null) {
+            render(throwable.getCause(), "Caused by: ", prefix, trace, seen, headers, frames);
+        }
+    }
+
+    /**
+     * Gets the stack trace of the given exception, rendering its frames only if not already cached,
+     * and counts its occurrence in the deduplication window.
+     *
+     * @param throwable The exception
+     * @param time      The time of the occurrence in milliseconds since epoch
+     * @return The stack trace of the occurrence
+     */
+    public StackTrace get(Throwable throwable, long time) {
+        String fingerprint = fingerprint(throwable);
+        List<String> headers = new ArrayList<>();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(fingerprint);
+        }
+        if (entry == null) {
+            List<String> frames = new ArrayList<>();
+            render(throwable, headers, frames);
+            Entry rendered = new Entry(frames);
+            synchronized (entries) {
+                entry = entries.computeIfAbsent(fingerprint, key -> rendered);
+            }
+        }
+        long occurrences = entry.occur(time, window);
+        if (window > 0 && occurrences > 1) {
+            return new StackTrace(fingerprint, null, occurrences);
+        }
+        if (headers.isEmpty()) {
+            render(throwable, headers, null);
+        }
+        return new StackTrace(fingerprint, entry.format(headers, throwable), occurrences);
+    }
+
+    /**
+     * Gets the number of stack traces in the cache.
+     *
+     * @return The number of stack traces
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Stack trace of an occurrence of an exception.
+     *
+     * @param fingerprint The fingerprint of the exception
+     * @param stackTrace  The rendered stack trace or {@code null} if already given in the deduplication window
+     * @param occurrences The number of occurrences of the exception in the deduplication window
+     */
+    public record StackTrace(String fingerprint, String stackTrace, long occurrences) {
+    }
+
+    private static class Entry {
+
+        private final List<String> frames;
+        private long windowStart = Long.MIN_VALUE;
+        private long occurrences;
+
+        Entry(List<String> frames) {
+            this.frames = frames;
+        }
+
+        String format(List<String> headers, Throwable throwable) {
+            if (headers.size() != frames.size()) {
+                // Exceeding the causes taken into account by the fingerprint
+                return render(throwable);
+            }
+            StringBuilder stackTrace = new StringBuilder();
+            for (int i = 0; i < headers.size(); i++) {
+                stackTrace.append(headers.get(i)).append(frames.get(i));
+            }
+            return stackTrace.toString();
+        }
+
+        synchronized long occur(long time, long window) {
+            if (window <= 0 || windowStart == Long.MIN_VALUE || time - windowStart >= window || time < windowStart) {
+                windowStart = time;
+                occurrences = 0;
+            }
+            return ++occurrences;
+        }
+
+    }
+
+}
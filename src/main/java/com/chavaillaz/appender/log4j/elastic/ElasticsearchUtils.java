@@ -3,6 +3,14 @@ package com.chavaillaz.appender.log4j.elastic;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 import static org.apache.http.auth.AuthScope.ANY;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.json.jackson.Jackson3JsonpMapper;
 import co.elastic.clients.transport.rest_client.RestClientTransport;
@@ -13,12 +21,20 @@ import org.apache.http.Header;
 import org.apache.http.HttpHost;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.conn.ssl.TrustAllStrategy;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.ssl.SSLContextBuilder;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.Sniffer;
 
 /**
  * Elasticsearch specific utility methods.
@@ -26,6 +42,43 @@ import org.elasticsearch.client.RestClient;
 @UtilityClass
 public class ElasticsearchUtils {
 
+    /**
+     * Node selector keeping only the nodes with the ingest role, or all the nodes when their roles are unknown
+     * (when they are not discovered by sniffing).
+     */
+    public static final NodeSelector INGEST_NODES = new NodeSelector() {
+
+        @Override
+        public void select(Iterable<Node> nodes) {
+            for (Iterator<Node> iterator = nodes.iterator(); iterator.hasNext(); ) {
+                Node node = iterator.next();
+                if (node.getRoles() != null && !node.getRoles().isIngest()) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "INGEST_NODES";
+        }
+
+    };
+
+    private static final Map<Path, Object> FILE_LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the lock to hold when appending to the given file, shared by all the writers of the same file
+     * (such as the partitions of a delivery or several appenders configured with the same file),
+     * so that their content is never interleaved, while the writers of different files do not contend.
+     *
+     * @param file The file to write
+     * @return The lock of the file
+     */
+    public static Object getFileLock(Path file) {
+        return FILE_LOCKS.computeIfAbsent(file.toAbsolutePath().normalize(), key -> new Object());
+    }
+
     /**
      * Creates a new Elasticsearch client.
      *
@@ -33,53 +86,228 @@ public class ElasticsearchUtils {
      * @return The Elasticsearch client with the given configuration
      */
     public static ElasticsearchClient createClient(ElasticsearchConfiguration configuration) {
+        return createClient(createRestClientBuilder(configuration).build());
+    }
+
+    /**
+     * Creates a new REST client builder.
+     *
+     * @param configuration The configuration to use
+     * @return The REST client builder with the given configuration
+     */
+    public static RestClientBuilder createRestClientBuilder(ElasticsearchConfiguration configuration) {
+        RestClientBuilder builder;
+        RestClientBuilder.HttpClientConfigCallback tuning = httpClientBuilder -> configureHttpClient(httpClientBuilder, configuration);
         if (isNotBlank(configuration.getApiKey())) {
-            return createClient(configuration.getUrl(), createPermissiveContext(), configuration.getApiKey());
+            builder = createRestClientBuilder(configuration.getUrl(), createPermissiveContext(), configuration.getApiKey(), tuning);
+        } else {
+            builder = createRestClientBuilder(configuration.getUrl(), createPermissiveContext(), configuration.getUser(), configuration.getPassword(), tuning);
+        }
+        // Streamed bulk bodies are compressed by the delivery itself to apply the compression threshold
+        builder.setCompressionEnabled(configuration.getCompression() == ElasticsearchCompression.GZIP && !configuration.isStreamingBulk());
+        builder.setNodeSelector(createNodeSelector(configuration.getNodeSelector()));
+        builder.setRequestConfigCallback(requestConfigBuilder -> configureRequest(requestConfigBuilder, configuration));
+        return builder;
+    }
+
+    /**
+     * Configures the connection pool and the I/O threads of the HTTP client, keeping the defaults of
+     * the REST client for the values not defined.
+     *
+     * @param builder       The HTTP client builder
+     * @param configuration The configuration to use
+     * @return The HTTP client builder
+     */
+    public static HttpAsyncClientBuilder configureHttpClient(HttpAsyncClientBuilder builder, ElasticsearchConfiguration configuration) {
+        if (configuration.getMaxConnections() > 0) {
+            builder.setMaxConnTotal(configuration.getMaxConnections());
+        }
+        if (configuration.getMaxConnectionsPerRoute() > 0) {
+            builder.setMaxConnPerRoute(configuration.getMaxConnectionsPerRoute());
+        }
+        if (configuration.getIoThreads() > 0) {
+            builder.setDefaultIOReactorConfig(IOReactorConfig.custom()
+                    .setIoThreadCount(configuration.getIoThreads())
+                    .build());
+        }
+        if (isPositive(configuration.getKeepAlive())) {
+            long keepAlive = configuration.getKeepAlive().toMillis();
+            builder.setKeepAliveStrategy((response, context) -> keepAlive);
+        }
+        return builder;
+    }
+
+    /**
+     * Configures the timeouts of the requests, keeping the defaults of the REST client for the values not defined.
+     *
+     * @param builder       The request configuration builder
+     * @param configuration The configuration to use
+     * @return The request configuration builder
+     */
+    public static RequestConfig.Builder configureRequest(RequestConfig.Builder builder, ElasticsearchConfiguration configuration) {
+        if (isPositive(configuration.getConnectTimeout())) {
+            builder.setConnectTimeout(toMillis(configuration.getConnectTimeout()));
+        }
+        if (isPositive(configuration.getSocketTimeout())) {
+            builder.setSocketTimeout(toMillis(configuration.getSocketTimeout()));
+        }
+        if (isPositive(configuration.getConnectionRequestTimeout())) {
+            builder.setConnectionRequestTimeout(toMillis(configuration.getConnectionRequestTimeout()));
+        }
+        return builder;
+    }
+
+    private static boolean isPositive(Duration duration) {
+        return duration != null && !duration.isZero() && !duration.isNegative();
+    }
+
+    private static int toMillis(Duration duration) {
+        return (int) Math.min(Integer.MAX_VALUE, duration.toMillis());
+    }
+
+    /**
+     * Parses the given list of URLs separated by commas.
+     *
+     * @param url The URLs of the Elasticsearch nodes in the format {@code scheme://host:port}
+     * @return The hosts corresponding to the URLs
+     */
+    public static HttpHost[] parseHosts(String url) {
+        return Arrays.stream(url.split(","))
+                .map(String::trim)
+                .filter(host -> !host.isEmpty())
+                .map(HttpHost::create)
+                .toArray(HttpHost[]::new);
+    }
+
+    /**
+     * Gets the node selector with the given name.
+     *
+     * @param name The name of the node selector ({@code any}, {@code ingest} or {@code skip_dedicated_masters})
+     * @return The corresponding node selector or {@link NodeSelector#ANY} if unknown
+     */
+    public static NodeSelector createNodeSelector(String name) {
+        if ("ingest".equalsIgnoreCase(name)) {
+            return INGEST_NODES;
+        } else if ("skip_dedicated_masters".equalsIgnoreCase(name)) {
+            return NodeSelector.SKIP_DEDICATED_MASTERS;
         } else {
-            return createClient(configuration.getUrl(), createPermissiveContext(), configuration.getUser(), configuration.getPassword());
+            return NodeSelector.ANY;
         }
     }
 
+    /**
+     * Creates a new sniffer updating periodically the nodes of the given client with the ones of the cluster.
+     *
+     * @param restClient    The REST client whose nodes are updated
+     * @param configuration The configuration to use
+     * @return The sniffer, to be closed before the client
+     */
+    public static Sniffer createSniffer(RestClient restClient, ElasticsearchConfiguration configuration) {
+        HttpHost[] hosts = parseHosts(configuration.getUrl());
+        ElasticsearchNodesSniffer.Scheme scheme = hosts.length > 0 && "https".equalsIgnoreCase(hosts[0].getSchemeName())
+                ? ElasticsearchNodesSniffer.Scheme.HTTPS
+                : ElasticsearchNodesSniffer.Scheme.HTTP;
+        int interval = (int) Math.min(Integer.MAX_VALUE, configuration.getSniffInterval().toMillis());
+        return Sniffer.builder(restClient)
+                .setSniffIntervalMillis(interval)
+                .setSniffAfterFailureDelayMillis(Math.min(interval, 60_000))
+                .setNodesSniffer(new ElasticsearchNodesSniffer(restClient,
+                        ElasticsearchNodesSniffer.DEFAULT_SNIFF_REQUEST_TIMEOUT, scheme))
+                .build();
+    }
+
     /**
      * Creates a new Elasticsearch client.
      *
-     * @param url        The URL of the Elasticsearch instance to reach
+     * @param url        The URLs of the Elasticsearch nodes to reach, separated by commas
      * @param sslContext The secure socket protocol implementation
      * @param username   The username to authenticate
      * @param password   The password corresponding to the given username
      * @return The Elasticsearch client with the given configuration
      */
     public static ElasticsearchClient createClient(String url, SSLContext sslContext, String username, String password) {
+        return createClient(createRestClientBuilder(url, sslContext, username, password).build());
+    }
+
+    /**
+     * Creates a new Elasticsearch client.
+     *
+     * @param url        The URLs of the Elasticsearch nodes to reach, separated by commas
+     * @param sslContext The secure socket protocol implementation
+     * @param apiKey     The encoded API key to authenticate
+     * @return The Elasticsearch client with the given configuration
+     */
+    public static ElasticsearchClient createClient(String url, SSLContext sslContext, String apiKey) {
+        return createClient(createRestClientBuilder(url, sslContext, apiKey).build());
+    }
+
+    /**
+     * Creates a new REST client builder authenticating with username and password.
+     *
+     * @param url        The URLs of the Elasticsearch nodes to reach, separated by commas
+     * @param sslContext The secure socket protocol implementation
+     * @param username   The username to authenticate
+     * @param password   The password corresponding to the given username
+     * @return The REST client builder with the given configuration
+     */
+    public static RestClientBuilder createRestClientBuilder(String url, SSLContext sslContext, String username, String password) {
+        return createRestClientBuilder(url, sslContext, username, password, httpClientBuilder -> httpClientBuilder);
+    }
+
+    /**
+     * Creates a new REST client builder authenticating with username and password.
+     *
+     * @param url        The URLs of the Elasticsearch nodes to reach, separated by commas
+     * @param sslContext The secure socket protocol implementation
+     * @param username   The username to authenticate
+     * @param password   The password corresponding to the given username
+     * @param tuning     The additional configuration of the HTTP client
+     * @return The REST client builder with the given configuration
+     */
+    public static RestClientBuilder createRestClientBuilder(String url, SSLContext sslContext, String username, String password,
+                                                            RestClientBuilder.HttpClientConfigCallback tuning) {
         CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
         credentialsProvider.setCredentials(ANY, new UsernamePasswordCredentials(username, password));
-        return createClient(RestClient
-                .builder(HttpHost.create(url))
+        return RestClient
+                .builder(parseHosts(url))
                 .setHttpClientConfigCallback(httpClientBuilder ->
-                        httpClientBuilder
+                        tuning.customizeHttpClient(httpClientBuilder
                                 .setDefaultCredentialsProvider(credentialsProvider)
                                 .setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE)
-                                .setSSLContext(sslContext))
-                .build());
+                                .setSSLContext(sslContext)));
     }
 
     /**
-     * Creates a new Elasticsearch client.
+     * Creates a new REST client builder authenticating with an API key.
      *
-     * @param url        The URL of the Elasticsearch instance to reach
+     * @param url        The URLs of the Elasticsearch nodes to reach, separated by commas
      * @param sslContext The secure socket protocol implementation
      * @param apiKey     The encoded API key to authenticate
-     * @return The Elasticsearch client with the given configuration
+     * @return The REST client builder with the given configuration
      */
-    public static ElasticsearchClient createClient(String url, SSLContext sslContext, String apiKey) {
+    public static RestClientBuilder createRestClientBuilder(String url, SSLContext sslContext, String apiKey) {
+        return createRestClientBuilder(url, sslContext, apiKey, httpClientBuilder -> httpClientBuilder);
+    }
+
+    /**
+     * Creates a new REST client builder authenticating with an API key.
+     *
+     * @param url        The URLs of the Elasticsearch nodes to reach, separated by commas
+     * @param sslContext The secure socket protocol implementation
+     * @param apiKey     The encoded API key to authenticate
+     * @param tuning     The additional configuration of the HTTP client
+     * @return The REST client builder with the given configuration
+     */
+    public static RestClientBuilder createRestClientBuilder(String url, SSLContext sslContext, String apiKey,
+                                                            RestClientBuilder.HttpClientConfigCallback tuning) {
         Header headerApiKey = new BasicHeader("Authorization", "ApiKey " + apiKey);
-        return createClient(RestClient
-                .builder(HttpHost.create(url))
+        return RestClient
+                .builder(parseHosts(url))
                 .setDefaultHeaders(new Header[]{headerApiKey})
                 .setHttpClientConfigCallback(httpClientBuilder ->
-                        httpClientBuilder
+                        tuning.customizeHttpClient(httpClientBuilder
                                 .setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE)
-                                .setSSLContext(sslContext))
-                .build());
+                                .setSSLContext(sslContext)));
     }
 
     /**
@@ -105,4 +333,60 @@ public class ElasticsearchUtils {
                 .build();
     }
 
+    /**
+     * Truncates the given text to the given number of characters, without splitting a surrogate pair.
+     *
+     * @param text      The text to truncate
+     * @param maxLength The maximum number of characters or zero for no limit
+     * @return The truncated text or the given one if not exceeding the limit
+     */
+    public static String truncate(String text, int maxLength) {
+        if (text == null || maxLength <= 0 || text.length() <= maxLength) {
+            return text;
+        }
+        int end = Character.isHighSurrogate(text.charAt(maxLength - 1)) ? maxLength - 1 : maxLength;
+        return text.substring(0, end);
+    }
+
+    /**
+     * Indicates if the virtual threads are available in the current runtime (Java 21 and later).
+     *
+     * @return {@code true} if the virtual threads can be created
+     */
+    public static boolean isVirtualThreadSupported() {
+        return createVirtualThreadFactory("probe") != null;
+    }
+
+    /**
+     * Creates a factory of threads with the given name, using virtual threads if requested and available
+     * in the current runtime, or daemon platform threads otherwise.
+     *
+     * @param name    The name of the threads
+     * @param virtual {@code true} to create virtual threads when available
+     * @return The thread factory
+     */
+    public static ThreadFactory createThreadFactory(String name, boolean virtual) {
+        ThreadFactory factory = virtual ? createVirtualThreadFactory(name) : null;
+        if (factory != null) {
+            return factory;
+        }
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static ThreadFactory createVirtualThreadFactory(String name) {
+        // Resolved by reflection to still run on the runtimes prior to Java 21
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class).invoke(builder, name);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
 }
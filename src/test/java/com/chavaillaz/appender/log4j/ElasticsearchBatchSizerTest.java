@@ -0,0 +1,63 @@
+package com.chavaillaz.appender.log4j;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Map;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchBatchSizer;
+import org.junit.jupiter.api.Test;
+
+class ElasticsearchBatchSizerTest {
+
+    @Test
+    void testFlushBytes() {
+        // Given
+        Map<String, Object> document = Map.of("logmessage", "x".repeat(100));
+        ElasticsearchBatchSizer sizer = new ElasticsearchBatchSizer(1000, 3 * ElasticsearchBatchSizer.estimateSize(document), false);
+
+        // When
+        boolean first = sizer.add(document);
+        boolean second = sizer.add(document);
+        boolean third = sizer.add(document);
+        sizer.reset();
+        boolean afterReset = sizer.add(document);
+
+        // Then
+        assertThat(first).isFalse();
+        assertThat(second).isFalse();
+        assertThat(third).isTrue();
+        assertThat(afterReset).isFalse();
+    }
+
+    @Test
+    void testAdaptiveBackOffUnderPressure() {
+        // Given
+        ElasticsearchBatchSizer sizer = new ElasticsearchBatchSizer(1000, 0, true);
+
+        // When
+        sizer.update(1000, 100_000_000, 50, 10);
+
+        // Then
+        assertThat(sizer.getTargetDocuments()).isEqualTo(500);
+        for (int i = 0; i < 500; i++) {
+            assertThat(sizer.add(Map.of())).isEqualTo(i == 499);
+        }
+    }
+
+    @Test
+    void testAdaptiveConvergence() {
+        // Given
+        ElasticsearchBatchSizer sizer = new ElasticsearchBatchSizer(10_000, 0, true);
+
+        // When the round trip has a fixed cost and then grows quadratically beyond 2000 documents
+        for (int i = 0; i < 100; i++) {
+            int documents = sizer.getTargetDocuments();
+            long roundTrip = 50_000_000L + documents * 10_000L + (long) Math.pow(Math.max(0, documents - 2000), 2) * 100L;
+            sizer.update(documents, roundTrip, documents / 100, 0);
+        }
+
+        // Then
+        assertThat(sizer.getTargetDocuments()).isBetween(1000, 4000);
+    }
+
+}
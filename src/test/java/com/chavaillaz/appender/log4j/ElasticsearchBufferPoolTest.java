@@ -0,0 +1,44 @@
+package com.chavaillaz.appender.log4j;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchBufferPool;
+import org.junit.jupiter.api.Test;
+
+class ElasticsearchBufferPoolTest {
+
+    @Test
+    void testUndersizedBufferKept() {
+        // Given
+        ElasticsearchBufferPool pool = new ElasticsearchBufferPool(2, 16);
+        ByteBuffer small = pool.acquire(16);
+        pool.release(small);
+
+        // When
+        ByteBuffer large = pool.acquire(64);
+
+        // Then
+        assertThat(large.capacity()).isEqualTo(64);
+        assertThat(pool.size()).isEqualTo(1);
+        assertThat(pool.acquire(16)).isSameAs(small);
+    }
+
+    @Test
+    void testLargerBufferReplacesSmallerOne() {
+        // Given
+        ElasticsearchBufferPool pool = new ElasticsearchBufferPool(1, 16);
+        ByteBuffer small = pool.acquire(16);
+        pool.release(small);
+        ByteBuffer large = pool.acquire(64);
+
+        // When
+        pool.release(large);
+
+        // Then
+        assertThat(pool.size()).isEqualTo(1);
+        assertThat(pool.acquire(64)).isSameAs(large);
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.chavaillaz.appender.log4j;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchBufferPool;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchBulkBody;
+import org.apache.http.HttpEntity;
+import org.junit.jupiter.api.Test;
+
+class ElasticsearchBulkBodyTest {
+
+    @Test
+    void testGzipCompression() throws IOException {
+        // Given
+        String content = "{\"index\":{\"_index\":\"ha\"}}\n{\"logmessage\":\"message\"}\n".repeat(1000);
+        ElasticsearchBulkBody body = new ElasticsearchBulkBody(new ElasticsearchBufferPool(2, 64));
+        body.write(content.getBytes(UTF_8));
+        body.addDocument();
+
+        // When
+        ElasticsearchBulkBody compressed = body.compress(1);
+        HttpEntity entity = compressed.toEntity();
+
+        // Then
+        assertThat(compressed.getDocuments()).isEqualTo(1);
+        assertThat(compressed.size()).isLessThan(body.size() / 10);
+        assertThat(entity.getContentEncoding().getValue()).isEqualTo(ElasticsearchBulkBody.GZIP_ENCODING);
+        try (InputStream input = new GZIPInputStream(entity.getContent())) {
+            assertThat(new String(input.readAllBytes(), UTF_8)).isEqualTo(content);
+        }
+        compressed.release();
+        body.release();
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.chavaillaz.appender.log4j;
+
+import static com.chavaillaz.appender.log4j.ElasticsearchMockServerTest.append;
+import static com.chavaillaz.appender.log4j.ElasticsearchMockServerTest.await;
+import static com.chavaillaz.appender.log4j.ElasticsearchMockServerTest.createBuilder;
+import static com.chavaillaz.appender.log4j.elastic.ElasticsearchCircuitBreaker.State.CLOSED;
+import static com.chavaillaz.appender.log4j.elastic.ElasticsearchCircuitBreaker.State.HALF_OPEN;
+import static com.chavaillaz.appender.log4j.elastic.ElasticsearchCircuitBreaker.State.OPEN;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchAppender;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchCircuitBreaker;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchMetrics;
+import org.junit.jupiter.api.Test;
+
+class ElasticsearchCircuitBreakerTest {
+
+    @Test
+    void testStateTransitions() {
+        // Given
+        ElasticsearchMetrics metrics = new ElasticsearchMetrics();
+        ElasticsearchCircuitBreaker breaker = new ElasticsearchCircuitBreaker(3, Duration.ZERO, metrics);
+
+        // When
+        breaker.onFailure();
+        breaker.onFailure();
+        ElasticsearchCircuitBreaker.State belowThreshold = breaker.getState();
+        breaker.onFailure();
+
+        // Then
+        assertThat(belowThreshold).isEqualTo(CLOSED);
+        assertThat(breaker.getState()).isEqualTo(OPEN);
+        assertThat(breaker.allowRequest()).isFalse();
+
+        // When
+        breaker.onProbe(false);
+        ElasticsearchCircuitBreaker.State unhealthy = breaker.getState();
+        breaker.onProbe(true);
+
+        // Then
+        assertThat(unhealthy).isEqualTo(OPEN);
+        assertThat(breaker.getState()).isEqualTo(HALF_OPEN);
+        assertThat(breaker.allowRequest()).isTrue();
+        assertThat(breaker.allowRequest()).isFalse();
+
+        // When
+        breaker.onFailure();
+        breaker.onProbe(true);
+        boolean trial = breaker.allowRequest();
+        breaker.onSuccess();
+
+        // Then
+        assertThat(trial).isTrue();
+        assertThat(breaker.getState()).isEqualTo(CLOSED);
+        assertThat(breaker.allowRequest()).isTrue();
+        assertThat(metrics.getCircuitOpenings()).isEqualTo(2);
+        assertThat(metrics.getCircuitState()).isEqualTo("CLOSED");
+    }
+
+    @Test
+    void testLateSuccessKeepsOpen() {
+        // Given
+        ElasticsearchCircuitBreaker breaker = new ElasticsearchCircuitBreaker(1, Duration.ZERO, null);
+        breaker.onFailure();
+
+        // When
+        breaker.onSuccess();
+
+        // Then
+        assertThat(breaker.getState()).isEqualTo(OPEN);
+        assertThat(breaker.allowRequest()).isFalse();
+    }
+
+    @Test
+    void testProbeDueOncePerInterval() {
+        // Given
+        ElasticsearchCircuitBreaker breaker = new ElasticsearchCircuitBreaker(1, Duration.ofMillis(50), null);
+
+        // When
+        boolean closed = breaker.isProbeDue();
+        breaker.onFailure();
+        boolean immediately = breaker.isProbeDue();
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(60));
+        boolean first = breaker.isProbeDue();
+        boolean second = breaker.isProbeDue();
+
+        // Then
+        assertThat(closed).isFalse();
+        assertThat(immediately).isFalse();
+        assertThat(first).isTrue();
+        assertThat(second).isFalse();
+    }
+
+    @Test
+    void testShortCircuitDuringOutage() throws Exception {
+        try (ElasticsearchMockServer server = new ElasticsearchMockServer()) {
+            // Given
+            server.setAvailable(false);
+            ElasticsearchAppender appender = createBuilder(server)
+                    .setCircuitBreakerThreshold(2)
+                    .setHealthProbeInterval(50)
+                    .build();
+            ElasticsearchMetrics metrics = appender.getLogConfiguration().getMetrics();
+
+            // When
+            appender.start();
+            append(appender, 100);
+            await(() -> "OPEN".equals(metrics.getCircuitState()));
+            long requestsWhenOpened = server.getRequests().sum();
+            append(appender, 100);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(300));
+            long requestsWhileOpen = server.getRequests().sum() - requestsWhenOpened;
+            server.setAvailable(true);
+            await(() -> server.getDocuments().sum() >= 200);
+            appender.stop();
+
+            // Then
+            assertThat(requestsWhenOpened).isEqualTo(2);
+            assertThat(requestsWhileOpen).isZero();
+            assertThat(server.getHealthRequests().sum()).isPositive();
+            assertThat(server.getDocuments().sum()).isEqualTo(200);
+            assertThat(metrics.getBulkShortCircuits()).isPositive();
+            assertThat(metrics.getCircuitOpenings()).isEqualTo(1);
+            assertThat(metrics.getCircuitState()).isEqualTo("CLOSED");
+        }
+    }
+
+    @Test
+    void testPipelinedShortCircuitKeepsDocuments() throws Exception {
+        try (ElasticsearchMockServer server = new ElasticsearchMockServer()) {
+            // Given
+            server.setAvailable(false);
+            ElasticsearchAppender appender = createBuilder(server)
+                    .setMaxInFlightBulks(2)
+                    .setMaxRetries(1)
+                    .setCircuitBreakerThreshold(1)
+                    .setHealthProbeInterval(500)
+                    .build();
+            ElasticsearchMetrics metrics = appender.getLogConfiguration().getMetrics();
+
+            // When
+            appender.start();
+            append(appender, 100);
+            await(() -> "OPEN".equals(metrics.getCircuitState()));
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(400));
+            server.setAvailable(true);
+            await(() -> server.getDocuments().sum() >= 100);
+            appender.stop();
+
+            // Then
+            assertThat(metrics.getBulkShortCircuits()).isPositive();
+            assertThat(metrics.getEventsFailed()).isZero();
+            assertThat(server.getDocuments().sum()).isEqualTo(100);
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.chavaillaz.appender.log4j;
+
+import static com.chavaillaz.appender.log4j.ElasticsearchTestFixtures.configuration;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchClientRegistry;
+import org.junit.jupiter.api.Test;
+
+class ElasticsearchClientRegistryTest {
+
+    protected static boolean isRunning(ElasticsearchClient client) {
+        return ((RestClientTransport) client._transport()).restClient().isRunning();
+    }
+
+    @Test
+    void testSharedClient() throws IOException {
+        // Given
+        ElasticsearchClient first = ElasticsearchClientRegistry.acquire(configuration(null, options -> options.setUrl("http://localhost:9200")));
+        ElasticsearchClient second = ElasticsearchClientRegistry.acquire(configuration(null, options -> options.setUrl("http://localhost:9200")));
+        ElasticsearchClient other = ElasticsearchClientRegistry.acquire(configuration(null, options -> options.setUrl("http://localhost:9201")));
+
+        // When
+        ElasticsearchClientRegistry.release(first);
+        boolean runningAfterFirstRelease = isRunning(second);
+        ElasticsearchClientRegistry.release(second);
+        ElasticsearchClientRegistry.release(other);
+
+        // Then
+        assertThat(second).isSameAs(first);
+        assertThat(other).isNotSameAs(first);
+        assertThat(runningAfterFirstRelease).isTrue();
+        assertThat(isRunning(first)).isFalse();
+        assertThat(isRunning(other)).isFalse();
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.chavaillaz.appender.log4j;
+
+import static com.chavaillaz.appender.log4j.ElasticsearchTestFixtures.compiledConfiguration;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchBufferPool;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchBulkBody;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchBulkSerializer;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchConfiguration;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchRawDocument;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.junit.jupiter.api.Test;
+
+class ElasticsearchCompiledConverterTest {
+
+    protected static LogEvent event() {
+        SortedArrayStringMap contextData = new SortedArrayStringMap();
+        contextData.putValue("requestId", "abc");
+        contextData.putValue("host", "conflicting");
+        return ElasticsearchTestFixtures.event("myLogger", Level.ERROR)
+                .setThreadName("main")
+                .setMessage(new SimpleMessage("Something \"quoted\" happened"))
+                .setContextData(contextData)
+                .setThrown(new IllegalStateException("Failure"))
+                .build();
+    }
+
+    @Test
+    void testDefaultLayout() {
+        // Given
+        ElasticsearchConfiguration configuration = compiledConfiguration(null);
+        DefaultLogConverter defaultConverter = new DefaultLogConverter();
+        defaultConverter.configure(configuration);
+        LogEvent event = event();
+
+        // When
+        Map<String, Object> document = configuration.getConverter().convert(event);
+
+        // Then
+        assertThat(document).isInstanceOf(ElasticsearchRawDocument.class);
+        assertThat(document.keySet()).containsExactly("datetime", "host", "environment", "application",
+                "logger", "level", "logmessage", "thread", "requestId", "class", "stacktrace");
+        assertThat(document.get("host")).isEqualTo("myHost");
+        Map<String, Object> expected = defaultConverter.convert(event);
+        expected.put("host", "myHost");
+        assertThat(document).isEqualTo(expected);
+    }
+
+    @Test
+    void testCustomLayout() {
+        // Given
+        ElasticsearchConfiguration configuration = compiledConfiguration("datetime:@timestamp, level:log.level, message, mdc.requestId:request.id, exception:error");
+
+        // When
+        Map<String, Object> document = configuration.getConverter().convert(event());
+
+        // Then
+        assertThat(document.toString()).startsWith("{\"@timestamp\":\"2023-11-14T22:13:20Z\",\"log.level\":\"ERROR\","
+                + "\"logmessage\":\"Something \\\"quoted\\\" happened\",\"request.id\":\"abc\",\"error\":{\"class\":\"java.lang.IllegalStateException\"");
+    }
+
+    @Test
+    void testSerializeRawDocument() {
+        // Given
+        ElasticsearchConfiguration configuration = compiledConfiguration("level,message");
+        Map<String, Object> document = configuration.getConverter().convert(event());
+        ElasticsearchBulkSerializer serializer = new ElasticsearchBulkSerializer(configuration, new ElasticsearchBufferPool(2, 64));
+
+        // When
+        ElasticsearchBulkBody body = serializer.serialize(List.of(document, Map.of("logmessage", "map")));
+        String content = UTF_8.decode(body.content()).toString();
+        body.release();
+
+        // Then
+        assertThat(content).isEqualTo("""
+                {"index":{"_index":"ha"}}
+                {"level":"ERROR","logmessage":"Something \\"quoted\\" happened"}
+                {"index":{"_index":"ha"}}
+                {"logmessage":"map"}
+                """);
+    }
+
+    @Test
+    void testIndexFromContextData() {
+        // Given
+        ElasticsearchConfiguration configuration = compiledConfiguration("level,mdc");
+        SortedArrayStringMap contextData = new SortedArrayStringMap();
+        contextData.putValue("_index", "audit");
+        LogEvent event = ElasticsearchTestFixtures.event("myLogger", Level.INFO)
+                .setContextData(contextData)
+                .build();
+        Map<String, Object> document = configuration.getConverter().convert(event);
+        ElasticsearchBulkSerializer serializer = new ElasticsearchBulkSerializer(configuration, new ElasticsearchBufferPool(2, 64));
+
+        // When
+        ElasticsearchBulkBody body = serializer.serialize(List.of(document));
+        String content = UTF_8.decode(body.content()).toString();
+        body.release();
+
+        // Then
+        assertThat(content).isEqualTo("""
+                {"index":{"_index":"audit"}}
+                {"level":"INFO"}
+                """);
+    }
+
+}
@@ -1,12 +1,21 @@
 package com.chavaillaz.appender.log4j;
 
 import static java.time.OffsetDateTime.now;
+import static java.time.temporal.ChronoUnit.DAYS;
+import static java.time.temporal.ChronoUnit.HOURS;
+import static java.time.temporal.ChronoUnit.MONTHS;
+import static java.time.temporal.ChronoUnit.YEARS;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.time.Instant;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
 
 import com.chavaillaz.appender.log4j.elastic.ElasticsearchConfiguration;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchIndexResolver;
 import org.junit.jupiter.api.Test;
 
 class ElasticsearchConfigurationTest {
@@ -29,6 +38,68 @@ class ElasticsearchConfigurationTest {
         assertThat(indexName).isEqualTo(index + "-" + formatter.format(date));
     }
 
+    @Test
+    void testIndexResolverBucketUnit() {
+        assertThat(ElasticsearchIndexResolver.getBucketUnit("")).isNull();
+        assertThat(ElasticsearchIndexResolver.getBucketUnit("-yyyy")).isEqualTo(YEARS);
+        assertThat(ElasticsearchIndexResolver.getBucketUnit("-yyyy.MM")).isEqualTo(MONTHS);
+        assertThat(ElasticsearchIndexResolver.getBucketUnit("-yyyy.MM.dd")).isEqualTo(DAYS);
+        assertThat(ElasticsearchIndexResolver.getBucketUnit("-yyyy.MM.dd-HH")).isEqualTo(HOURS);
+        assertThat(ElasticsearchIndexResolver.getBucketUnit("'-day-'yyyy")).isEqualTo(YEARS);
+    }
+
+    @Test
+    void testIndexResolverCurrentTime() {
+        // Given
+        ElasticsearchConfiguration configuration = new ElasticsearchConfiguration();
+        configuration.setIndex("idx");
+        configuration.setIndexSuffix("-yyyy.MM.dd");
+        OffsetDateTime date = now();
+
+        // When
+        String first = configuration.getIndexResolver().resolve(date.toInstant().toEpochMilli());
+        String second = configuration.getIndexResolver().resolve(Map.of(), date.toInstant().toEpochMilli());
+
+        // Then
+        assertThat(first).isEqualTo(configuration.generateIndexName(date));
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    void testIndexResolverEventTime() {
+        // Given
+        ElasticsearchIndexResolver resolver = new ElasticsearchIndexResolver("idx", "-yyyy.MM.dd", true, ZoneOffset.UTC);
+        long currentTime = Instant.parse("2024-03-02T00:10:00Z").toEpochMilli();
+
+        // When
+        String current = resolver.resolve(Map.of(), currentTime);
+        String late = resolver.resolve(resolver.withEventTime(new HashMap<>(),
+                Instant.parse("2024-03-01T23:59:59.999Z").toEpochMilli()), currentTime);
+        String next = resolver.resolve(resolver.withEventTime(new HashMap<>(),
+                Instant.parse("2024-03-03T00:00:00Z").toEpochMilli()), currentTime);
+
+        // Then
+        assertThat(current).isEqualTo("idx-2024.03.02");
+        assertThat(late).isEqualTo("idx-2024.03.01");
+        assertThat(next).isEqualTo("idx-2024.03.03");
+    }
+
+    @Test
+    void testIndexResolverBuiltOnce() {
+        // Given
+        ElasticsearchConfiguration configuration = new ElasticsearchConfiguration();
+        configuration.setIndex("idx");
+        ElasticsearchIndexResolver resolver = configuration.getIndexResolver();
+
+        // When
+        configuration.setIndexSuffix("-yyyy");
+        ElasticsearchIndexResolver updated = configuration.getIndexResolver();
+
+        // Then
+        assertThat(updated).isNotSameAs(resolver).isSameAs(configuration.getIndexResolver());
+        assertThat(updated.resolve(Instant.parse("2024-03-02T00:00:00Z").toEpochMilli())).isEqualTo("idx-2024");
+    }
+
     @Test
     void testWrongConverter() {
         // Given
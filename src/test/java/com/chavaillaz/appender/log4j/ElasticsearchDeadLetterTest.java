@@ -0,0 +1,110 @@
+package com.chavaillaz.appender.log4j;
+
+import static com.chavaillaz.appender.log4j.ElasticsearchMockServerTest.await;
+import static com.chavaillaz.appender.log4j.ElasticsearchMockServerTest.createBuilder;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.bulk.OperationType;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchConfiguration;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchDeadLetter;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchIndexResolver;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchLogDelivery;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ElasticsearchDeadLetterTest {
+
+    @TempDir
+    Path directory;
+
+    protected static BulkResponseItem rejection() {
+        return BulkResponseItem.of(item -> item
+                .operationType(OperationType.Index)
+                .index("logs")
+                .status(400)
+                .error(error -> error
+                        .type("document_parsing_exception")
+                        .reason("failed to parse field [count]")));
+    }
+
+    @Test
+    void testCreateDocument() {
+        // Given
+        ElasticsearchDeadLetter deadLetter = new ElasticsearchDeadLetter("logs-dead", null);
+
+        // When
+        Map<String, Object> document = deadLetter.createDocument(Map.of("count", "many"), rejection());
+
+        // Then
+        assertThat(document)
+                .containsEntry(ElasticsearchIndexResolver.INDEX_FIELD, "logs-dead")
+                .containsEntry("index", "logs")
+                .containsEntry("status", 400)
+                .containsEntry("error", "document_parsing_exception: failed to parse field [count]")
+                .containsEntry("document", "{\"count\":\"many\"}");
+    }
+
+    @Test
+    void testWriteFile() throws IOException {
+        // Given
+        Path file = directory.resolve("dead-letter.ndjson");
+        ElasticsearchDeadLetter deadLetter = new ElasticsearchDeadLetter("logs-dead", file.toString());
+        Map<String, Object> document = deadLetter.createDocument("{\"count\":\"many\"}", rejection());
+
+        // When
+        deadLetter.write(List.of(document));
+        deadLetter.write(List.of(document));
+
+        // Then
+        List<String> lines = Files.readAllLines(file);
+        assertThat(lines).hasSize(2);
+        assertThat(lines.get(0))
+                .doesNotContain(ElasticsearchIndexResolver.INDEX_FIELD)
+                .contains("\"status\":400");
+    }
+
+    @Test
+    void testPipelinedDeadLetters() throws Exception {
+        try (ElasticsearchMockServer server = new ElasticsearchMockServer()) {
+            // Given
+            server.setItemFailureRate(1);
+            server.setItemFailureStatus(400);
+            Path file = directory.resolve("dead-letter.ndjson");
+            ElasticsearchConfiguration configuration = createBuilder(server)
+                    .setMaxInFlightBulks(2)
+                    .setDeadLetterFile(file.toString())
+                    .build()
+                    .getLogConfiguration();
+            Set<String> threads = ConcurrentHashMap.newKeySet();
+            ElasticsearchLogDelivery delivery = new ElasticsearchLogDelivery(configuration, ElasticsearchUtils.createClient(configuration)) {
+                @Override
+                protected void sendDeadLetters(List<Map<String, Object>> deadLetters) {
+                    super.sendDeadLetters(deadLetters);
+                    threads.add(Thread.currentThread().getName());
+                }
+            };
+
+            // When
+            delivery.send(List.of(new HashMap<>(Map.of("count", "many")), new HashMap<>(Map.of("count", "more"))));
+            delivery.flush();
+            await(() -> !threads.isEmpty());
+            delivery.close();
+
+            // Then
+            assertThat(threads).containsExactly("MockAppender-bulk-handler");
+            assertThat(Files.readAllLines(file)).hasSize(2);
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.chavaillaz.appender.log4j;
+
+import static com.chavaillaz.appender.log4j.ElasticsearchTestFixtures.event;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchConfiguration;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchDeliveryWorker;
+import org.apache.logging.log4j.Level;
+import org.junit.jupiter.api.Test;
+
+class ElasticsearchDeliveryWorkerTest {
+
+    @Test
+    void testDeliveryOnStop() throws InterruptedException {
+        for (int ringBufferSize : new int[]{0, 64}) {
+            // Given
+            List<String> delivered = new CopyOnWriteArrayList<>();
+            ElasticsearchDeliveryWorker worker = new ElasticsearchDeliveryWorker("worker", new ElasticsearchConfiguration(),
+                    ringBufferSize, 0, event -> delivered.add(event.getMessage().getFormattedMessage()));
+
+            // When
+            worker.start();
+            for (int i = 0; i < 50; i++) {
+                assertThat(worker.offer(event(Level.INFO, "message-" + i))).isNull();
+            }
+            worker.stop(5000);
+
+            // Then
+            assertThat(delivered).hasSize(50).startsWith("message-0").endsWith("message-49");
+            assertThat(worker.size()).isZero();
+        }
+    }
+
+    @Test
+    void testRingBufferConsumerWokenUp() throws InterruptedException {
+        // Given
+        List<String> delivered = new CopyOnWriteArrayList<>();
+        ElasticsearchDeliveryWorker worker = new ElasticsearchDeliveryWorker("worker", new ElasticsearchConfiguration(),
+                64, 0, event -> delivered.add(event.getMessage().getFormattedMessage()));
+        worker.start();
+
+        // When
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            assertThat(worker.offer(event(Level.INFO, "message-" + i))).isNull();
+            while (delivered.size() <= i) {
+                Thread.onSpinWait();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        worker.stop(5000);
+
+        // Then
+        assertThat(delivered).hasSize(10);
+        assertThat(elapsed).isLessThan(TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+}
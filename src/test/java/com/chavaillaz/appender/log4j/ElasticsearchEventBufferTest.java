@@ -0,0 +1,97 @@
+package com.chavaillaz.appender.log4j;
+
+import static com.chavaillaz.appender.log4j.ElasticsearchTestFixtures.event;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchEventBuffer;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchOverflowPolicy;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.junit.jupiter.api.Test;
+
+class ElasticsearchEventBufferTest {
+
+    protected static List<String> drain(ElasticsearchEventBuffer buffer) throws InterruptedException {
+        List<LogEvent> events = new ArrayList<>();
+        buffer.drainTo(events, 0, TimeUnit.MILLISECONDS);
+        return events.stream().map(event -> event.getMessage().getFormattedMessage()).toList();
+    }
+
+    @Test
+    void testDropOldest() throws InterruptedException {
+        // Given
+        ElasticsearchEventBuffer buffer = new ElasticsearchEventBuffer(2, ElasticsearchOverflowPolicy.DROP_OLDEST, Duration.ZERO);
+
+        // When
+        buffer.offer(event(Level.INFO, "first"));
+        buffer.offer(event(Level.INFO, "second"));
+        LogEvent dropped = buffer.offer(event(Level.INFO, "third"));
+
+        // Then
+        assertThat(dropped.getMessage().getFormattedMessage()).isEqualTo("first");
+        assertThat(drain(buffer)).containsExactly("second", "third");
+    }
+
+    @Test
+    void testDropByLevel() throws InterruptedException {
+        // Given
+        ElasticsearchEventBuffer buffer = new ElasticsearchEventBuffer(2, ElasticsearchOverflowPolicy.DROP_BY_LEVEL, Duration.ZERO);
+        buffer.offer(event(Level.ERROR, "error"));
+        buffer.offer(event(Level.INFO, "info"));
+
+        // When
+        LogEvent droppedDebug = buffer.offer(event(Level.DEBUG, "debug"));
+        LogEvent droppedInfo = buffer.offer(event(Level.WARN, "warn"));
+        LogEvent droppedFatal = buffer.offer(event(Level.FATAL, "fatal"));
+
+        // Then
+        assertThat(droppedDebug.getMessage().getFormattedMessage()).isEqualTo("debug");
+        assertThat(droppedInfo.getMessage().getFormattedMessage()).isEqualTo("info");
+        assertThat(droppedFatal.getMessage().getFormattedMessage()).isEqualTo("fatal");
+        assertThat(drain(buffer)).containsExactly("error", "warn");
+    }
+
+    @Test
+    void testBlockTimeout() throws InterruptedException {
+        // Given
+        ElasticsearchEventBuffer buffer = new ElasticsearchEventBuffer(1, ElasticsearchOverflowPolicy.BLOCK, Duration.ofMillis(50));
+        buffer.offer(event(Level.INFO, "first"));
+
+        // When
+        long start = System.nanoTime();
+        LogEvent dropped = buffer.offer(event(Level.INFO, "second"));
+        long elapsed = System.nanoTime() - start;
+
+        // Then
+        assertThat(dropped.getMessage().getFormattedMessage()).isEqualTo("second");
+        assertThat(elapsed).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(drain(buffer)).containsExactly("first");
+    }
+
+    @Test
+    void testRejected() {
+        // Given
+        ElasticsearchEventBuffer dropNewest = new ElasticsearchEventBuffer(1, ElasticsearchOverflowPolicy.DROP_NEWEST, Duration.ZERO);
+        ElasticsearchEventBuffer dropByLevel = new ElasticsearchEventBuffer(1, ElasticsearchOverflowPolicy.DROP_BY_LEVEL, Duration.ZERO);
+        ElasticsearchEventBuffer dropOldest = new ElasticsearchEventBuffer(1, ElasticsearchOverflowPolicy.DROP_OLDEST, Duration.ZERO);
+        boolean rejectedWhenEmpty = dropNewest.isRejected(event(Level.INFO, "first"));
+
+        // When
+        dropNewest.offer(event(Level.INFO, "first"));
+        dropByLevel.offer(event(Level.INFO, "first"));
+        dropOldest.offer(event(Level.INFO, "first"));
+
+        // Then
+        assertThat(rejectedWhenEmpty).isFalse();
+        assertThat(dropNewest.isRejected(event(Level.ERROR, "second"))).isTrue();
+        assertThat(dropByLevel.isRejected(event(Level.INFO, "second"))).isTrue();
+        assertThat(dropByLevel.isRejected(event(Level.ERROR, "second"))).isFalse();
+        assertThat(dropOldest.isRejected(event(Level.INFO, "second"))).isFalse();
+    }
+
+}
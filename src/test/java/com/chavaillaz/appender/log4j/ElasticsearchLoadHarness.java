@@ -0,0 +1,121 @@
+package com.chavaillaz.appender.log4j;
+
+import static org.apache.logging.log4j.Level.INFO;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchAppender;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchHistogram;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+
+/**
+ * Load test harness appending events at a target rate to an appender sending them to the mock server,
+ * and reporting the rate of delivered events, the rate of dropped events and the end-to-end latency.
+ */
+public class ElasticsearchLoadHarness {
+
+    private final ElasticsearchAppender appender;
+    private final ElasticsearchMockServer server;
+
+    /**
+     * Creates a new load test harness.
+     *
+     * @param appender The appender started and sending its events to the given server
+     * @param server   The mock server receiving the events
+     */
+    public ElasticsearchLoadHarness(ElasticsearchAppender appender, ElasticsearchMockServer server) {
+        this.appender = appender;
+        this.server = server;
+    }
+
+    /**
+     * Appends events at the given rate during the given time, then waits for them to be delivered.
+     *
+     * @param eventsPerSecond The target rate of events appended, split between the threads
+     * @param threads         The number of threads appending events
+     * @param duration        The time during which events are appended
+     * @param drainTimeout    The maximum time to wait for the events to be delivered or dropped
+     * @return The report of the run
+     * @throws InterruptedException If interrupted while waiting for the threads
+     */
+    public Report run(int eventsPerSecond, int threads, Duration duration, Duration drainTimeout) throws InterruptedException {
+        server.reset();
+        long droppedBefore = appender.getDroppedEvents();
+        LongAdder appended = new LongAdder();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(threads) / eventsPerSecond;
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread producer = new Thread(() -> produce(start, end, intervalNanos, appended), "load-producer-" + i);
+            producer.start();
+            producers.add(producer);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        long sent = appended.sum();
+
+        long drainDeadline = System.nanoTime() + drainTimeout.toNanos();
+        while (server.getDocuments().sum() + appender.getDroppedEvents() - droppedBefore < sent
+                && System.nanoTime() < drainDeadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        return new Report(sent, server.getDocuments().sum(), appender.getDroppedEvents() - droppedBefore,
+                Duration.ofNanos(System.nanoTime() - start), server.getLatency());
+    }
+
+    private void produce(long start, long end, long intervalNanos, LongAdder appended) {
+        long next = start;
+        for (long now = System.nanoTime(); now < end; now = System.nanoTime()) {
+            if (now < next) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+            appender.append(Log4jLogEvent.newBuilder()
+                    .setLoggerName(ElasticsearchLoadHarness.class.getName())
+                    .setLevel(INFO)
+                    .setMessage(new SimpleMessage("Load test event " + appended.sum()))
+                    .setTimeMillis(System.currentTimeMillis())
+                    .build());
+            appended.increment();
+            next += intervalNanos;
+        }
+    }
+
+    /**
+     * Results of a load test run.
+     *
+     * @param sent      The number of events appended
+     * @param delivered The number of events received by the server
+     * @param dropped   The number of events dropped by the appender
+     * @param elapsed   The time from the first event to the end of the delivery
+     * @param latency   The latency (ms) between the time of the events and their reception by the server
+     */
+    public record Report(long sent, long delivered, long dropped, Duration elapsed, ElasticsearchHistogram latency) {
+
+        public double getDeliveredRate() {
+            return delivered * 1_000.0 / Math.max(1, elapsed.toMillis());
+        }
+
+        public double getDropRate() {
+            return sent > 0 ? (double) dropped / sent : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("sent=%d delivered=%d (%.0f/s) dropped=%d (%.2f%%) latency p50=%dms p99=%dms max=%dms",
+                    sent, delivered, getDeliveredRate(), dropped, getDropRate() * 100,
+                    latency.getPercentile(0.5), latency.getPercentile(0.99), latency.getMax());
+        }
+
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.chavaillaz.appender.log4j;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchHistogram;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchMetrics;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchMetricsListener;
+import org.apache.logging.log4j.Level;
+import org.junit.jupiter.api.Test;
+
+class ElasticsearchMetricsTest {
+
+    @Test
+    void testHistogram() {
+        // Given
+        ElasticsearchHistogram histogram = new ElasticsearchHistogram();
+
+        // When
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        // Then
+        assertThat(histogram.getCount()).isEqualTo(100);
+        assertThat(histogram.getMean()).isEqualTo(50.5);
+        assertThat(histogram.getMax()).isEqualTo(100);
+        assertThat(histogram.getPercentile(0.5)).isBetween(50L, 100L);
+        assertThat(histogram.getPercentile(0.99)).isEqualTo(100);
+    }
+
+    @Test
+    void testListener() {
+        // Given
+        AtomicInteger sent = new AtomicInteger();
+        AtomicInteger dropped = new AtomicInteger();
+        ElasticsearchMetrics metrics = new ElasticsearchMetrics();
+        metrics.setListener(new ElasticsearchMetricsListener() {
+
+            @Override
+            public void onEventsSent(int count) {
+                sent.addAndGet(count);
+            }
+
+            @Override
+            public void onEventsDropped(Level level, int count) {
+                dropped.addAndGet(count);
+            }
+
+        });
+
+        // When
+        metrics.onEventsSent(5);
+        metrics.onEventsDropped(Level.DEBUG, 2);
+        metrics.onEventsDropped(Level.ERROR, 1);
+
+        // Then
+        assertThat(sent).hasValue(5);
+        assertThat(dropped).hasValue(3);
+        assertThat(metrics.getEventsSent()).isEqualTo(5);
+        assertThat(metrics.getEventsDropped()).isEqualTo(3);
+        assertThat(metrics.getEventsDropped(Level.DEBUG)).isEqualTo(2);
+    }
+
+    @Test
+    void testJmxReplacement() throws Exception {
+        // Given
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = ElasticsearchMetrics.getObjectName("metrics-test");
+        ElasticsearchMetrics previous = new ElasticsearchMetrics();
+        ElasticsearchMetrics current = new ElasticsearchMetrics();
+        current.onEventsReceived(7);
+
+        // When
+        previous.register("metrics-test");
+        current.register("metrics-test");
+        previous.unregister("metrics-test");
+        Object received = server.getAttribute(name, "EventsReceived");
+        current.unregister("metrics-test");
+
+        // Then
+        assertThat(received).isEqualTo(7L);
+        assertThat(server.isRegistered(name)).isFalse();
+    }
+
+}
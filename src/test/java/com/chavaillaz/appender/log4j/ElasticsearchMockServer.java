@@ -0,0 +1,310 @@
+package com.chavaillaz.appender.log4j;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchHistogram;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Getter;
+import lombok.Setter;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+/**
+ * In-process stand-in of Elasticsearch implementing the bulk and cluster health endpoints and the minimum needed
+ * by the Java client, with configurable latency, throughput cap, rejected requests, partial item failures and outage.
+ * It records the documents received, the ingest pipelines requested and the latency between the time of the events
+ * and their reception.
+ */
+public class ElasticsearchMockServer implements AutoCloseable {
+
+    private static final JsonMapper MAPPER = JsonMapper.builder().build();
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Random random = new Random(42);
+    private final AtomicInteger requestsToReject = new AtomicInteger();
+    private final Object throughputLock = new Object();
+    private long nextAvailableTime;
+
+    @Getter
+    private final LongAdder requests = new LongAdder();
+    @Getter
+    private final LongAdder rejectedRequests = new LongAdder();
+    @Getter
+    private final LongAdder documents = new LongAdder();
+    @Getter
+    private final LongAdder failedItems = new LongAdder();
+    @Getter
+    private final LongAdder healthRequests = new LongAdder();
+    @Getter
+    private final Queue<JsonNode> recordedDocuments = new ConcurrentLinkedQueue<>();
+    @Getter
+    private final Queue<String> recordedPipelines = new ConcurrentLinkedQueue<>();
+    @Getter
+    private volatile ElasticsearchHistogram latency = new ElasticsearchHistogram();
+    private final Map<String, LongAdder> indexDocuments = new ConcurrentHashMap<>();
+
+    @Getter
+    @Setter
+    private volatile Duration responseTime = Duration.ZERO;
+    @Getter
+    @Setter
+    private volatile long maxDocumentsPerSecond;
+    @Getter
+    @Setter
+    private volatile double rejectionRate;
+    @Getter
+    @Setter
+    private volatile int rejectionStatus = 429;
+    @Getter
+    @Setter
+    private volatile double itemFailureRate;
+    @Getter
+    @Setter
+    private volatile int itemFailureStatus = 429;
+    @Getter
+    @Setter
+    private volatile boolean recording = true;
+    @Getter
+    @Setter
+    private volatile boolean available = true;
+
+    /**
+     * Creates and starts a new mock server on a free local port.
+     *
+     * @throws IOException If the server cannot be started
+     */
+    public ElasticsearchMockServer() throws IOException {
+        this.executor = Executors.newFixedThreadPool(16);
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    /**
+     * Gets the URL of the server.
+     *
+     * @return The URL to use as Elasticsearch address
+     */
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Rejects the next requests received with the rejection status.
+     *
+     * @param count The number of requests to reject
+     */
+    public void rejectNextRequests(int count) {
+        requestsToReject.set(count);
+    }
+
+    /**
+     * Gets the number of documents received in the given index.
+     *
+     * @param index The name of the index
+     * @return The number of documents accepted
+     */
+    public long getDocuments(String index) {
+        LongAdder count = indexDocuments.get(index);
+        return count != null ? count.sum() : 0;
+    }
+
+    /**
+     * Resets the recorded documents, counters and latencies.
+     */
+    public void reset() {
+        requests.reset();
+        rejectedRequests.reset();
+        documents.reset();
+        failedItems.reset();
+        healthRequests.reset();
+        indexDocuments.clear();
+        recordedDocuments.clear();
+        recordedPipelines.clear();
+        latency = new ElasticsearchHistogram();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            if (!available) {
+                exchange.getRequestBody().readAllBytes();
+                if (path.endsWith("/_bulk")) {
+                    requests.increment();
+                } else if ("/_cluster/health".equals(path)) {
+                    healthRequests.increment();
+                }
+                respond(exchange, 503, "{\"error\":{\"type\":\"master_not_discovered_exception\","
+                        + "\"reason\":\"unavailable by mock\"},\"status\":503}");
+            } else if (path.endsWith("/_bulk")) {
+                handleBulk(exchange);
+            } else if ("/_cluster/health".equals(path)) {
+                healthRequests.increment();
+                respond(exchange, 200, "{\"cluster_name\":\"mock\",\"status\":\"green\",\"timed_out\":false}");
+            } else if ("/".equals(path)) {
+                respond(exchange, 200, "{\"name\":\"mock\",\"cluster_name\":\"mock\",\"version\":{\"number\":\"9.0.0\"},"
+                        + "\"tagline\":\"You Know, for Search\"}");
+            } else {
+                respond(exchange, 404, "{\"error\":{\"type\":\"resource_not_found_exception\",\"reason\":\"" + path + "\"},\"status\":404}");
+            }
+        }
+    }
+
+    private void handleBulk(HttpExchange exchange) throws IOException {
+        requests.increment();
+        recordPipeline(exchange.getRequestURI().getQuery());
+        List<String> lines = readLines(exchange);
+        long start = System.nanoTime();
+        sleep(responseTime.toNanos());
+        if (isRejected()) {
+            rejectedRequests.increment();
+            respond(exchange, rejectionStatus, "{\"error\":{\"type\":\"es_rejected_execution_exception\","
+                    + "\"reason\":\"rejected by mock\"},\"status\":" + rejectionStatus + "}");
+            return;
+        }
+        awaitThroughput(lines.size() / 2);
+
+        long now = System.currentTimeMillis();
+        boolean errors = false;
+        StringBuilder items = new StringBuilder();
+        for (int i = 0; i + 1 < lines.size(); i += 2) {
+            Map.Entry<String, JsonNode> action = MAPPER.readTree(lines.get(i)).properties().iterator().next();
+            String operation = action.getKey();
+            String index = action.getValue().path("_index").asString();
+            items.append(i > 0 ? "," : "").append("{\"").append(operation).append("\":{\"_index\":\"").append(index).append("\",");
+            if (itemFailureRate > 0 && nextDouble() < itemFailureRate) {
+                errors = true;
+                failedItems.increment();
+                items.append("\"status\":").append(itemFailureStatus)
+                        .append(",\"error\":{\"type\":\"").append(itemFailureStatus == 429 ? "es_rejected_execution_exception" : "mapper_parsing_exception")
+                        .append("\",\"reason\":\"failed by mock\"}}}");
+            } else {
+                accept(index, MAPPER.readTree(lines.get(i + 1)), now);
+                items.append("\"_id\":\"").append(i / 2).append("\",\"result\":\"created\",\"status\":201}}");
+            }
+        }
+        long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        respond(exchange, 200, "{\"took\":" + took + ",\"errors\":" + errors + ",\"items\":[" + items + "]}");
+    }
+
+    private static List<String> readLines(HttpExchange exchange) throws IOException {
+        InputStream input = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            input = new GZIPInputStream(input);
+        }
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.isBlank()) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private void recordPipeline(String query) {
+        if (query == null) {
+            return;
+        }
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith("pipeline=")) {
+                recordedPipelines.add(parameter.substring("pipeline=".length()));
+            }
+        }
+    }
+
+    private void accept(String index, JsonNode document, long now) {
+        documents.increment();
+        indexDocuments.computeIfAbsent(index, key -> new LongAdder()).increment();
+        if (recording) {
+            recordedDocuments.add(document);
+        }
+        JsonNode datetime = document.path("datetime");
+        if (datetime.isString()) {
+            try {
+                latency.record(Math.max(0, now - OffsetDateTime.parse(datetime.asString()).toInstant().toEpochMilli()));
+            } catch (RuntimeException e) {
+                // Documents without parsable time are not measured
+            }
+        }
+    }
+
+    private boolean isRejected() {
+        if (requestsToReject.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+            return true;
+        }
+        return rejectionRate > 0 && nextDouble() < rejectionRate;
+    }
+
+    private double nextDouble() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    private void awaitThroughput(int count) {
+        long rate = maxDocumentsPerSecond;
+        if (rate <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (throughputLock) {
+            long now = System.nanoTime();
+            long available = Math.max(nextAvailableTime, now);
+            nextAvailableTime = available + TimeUnit.SECONDS.toNanos(count) / rate;
+            wait = available - now;
+        }
+        sleep(wait);
+    }
+
+    private static void sleep(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        for (long remaining = nanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] content = body.getBytes(UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+        exchange.sendResponseHeaders(status, content.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(content);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,241 @@
+package com.chavaillaz.appender.log4j;
+
+import static com.chavaillaz.appender.log4j.ElasticsearchTestFixtures.event;
+import static org.apache.logging.log4j.Level.INFO;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchAppender;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchConfiguration;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchLogDelivery;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchMetrics;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchUtils;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ElasticsearchMockServerTest {
+
+    protected static ElasticsearchAppender.Builder createBuilder(ElasticsearchMockServer server) {
+        ElasticsearchAppender.Builder builder = ElasticsearchAppender.builder();
+        builder.setName("MockAppender");
+        builder.setElasticUrl(server.getUrl());
+        builder.setElasticUser("elastic");
+        builder.setElasticPassword("changeme");
+        builder.setFlushInterval(100);
+        builder.setFlushThreshold(50);
+        builder.setRetryBackoff(10);
+        return builder;
+    }
+
+
+    protected static void append(ElasticsearchAppender appender, int count) {
+        for (int i = 0; i < count; i++) {
+            appender.append(event(ElasticsearchMockServerTest.class.getName(), INFO)
+                    .setMessage(new SimpleMessage("Event " + i))
+                    .setTimeMillis(System.currentTimeMillis())
+                    .build());
+        }
+    }
+
+    protected static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+    }
+
+    @Test
+    void testPartialItemFailures() throws Exception {
+        try (ElasticsearchMockServer server = new ElasticsearchMockServer()) {
+            // Given
+            server.setItemFailureRate(0.3);
+            ElasticsearchAppender appender = createBuilder(server).setMaxRetries(20).build();
+
+            // When
+            appender.start();
+            append(appender, 200);
+            await(() -> server.getDocuments().sum() >= 200);
+            appender.stop();
+
+            // Then
+            assertThat(server.getFailedItems().sum()).isPositive();
+            assertThat(server.getDocuments().sum()).isEqualTo(200);
+            assertThat(server.getRecordedDocuments())
+                    .extracting(document -> document.path("logmessage").asString())
+                    .doesNotHaveDuplicates();
+        }
+    }
+
+    @Test
+    void testRejectedRequests() throws Exception {
+        try (ElasticsearchMockServer server = new ElasticsearchMockServer()) {
+            // Given
+            server.setRejectionStatus(503);
+            server.rejectNextRequests(3);
+            ElasticsearchAppender appender = createBuilder(server).build();
+
+            // When
+            appender.start();
+            append(appender, 100);
+            await(() -> server.getDocuments().sum() >= 100);
+            appender.stop();
+
+            // Then
+            assertThat(server.getRejectedRequests().sum()).isEqualTo(3);
+            assertThat(server.getDocuments().sum()).isEqualTo(100);
+        }
+    }
+
+    @Test
+    void testRetryFailingAfterPartialSuccess() throws Exception {
+        try (ElasticsearchMockServer server = new ElasticsearchMockServer()) {
+            // Given
+            server.setItemFailureRate(0.5);
+            ElasticsearchConfiguration configuration = createBuilder(server)
+                    .setRetryBackoff(100)
+                    .build()
+                    .getLogConfiguration();
+            ElasticsearchLogDelivery delivery = new ElasticsearchLogDelivery(configuration, ElasticsearchUtils.createClient(configuration));
+            List<Map<String, Object>> documents = IntStream.range(0, 20)
+                    .<Map<String, Object>>mapToObj(i -> new HashMap<>(Map.of("logmessage", "Event " + i)))
+                    .toList();
+
+            // When
+            delivery.send(documents);
+            delivery.flush();
+            long firstAttempt = server.getDocuments().sum();
+            server.setItemFailureRate(0);
+            server.setRejectionStatus(503);
+            server.rejectNextRequests(2);
+            await(() -> server.getDocuments().sum() >= 20);
+            delivery.close();
+
+            // Then
+            assertThat(firstAttempt).isBetween(1L, 19L);
+            assertThat(server.getRejectedRequests().sum()).isEqualTo(2);
+            assertThat(server.getDocuments().sum()).isEqualTo(20);
+            assertThat(configuration.getMetrics().getEventsFailed()).isZero();
+        }
+    }
+
+    @Test
+    void testKeptBatchStillFull() throws Exception {
+        try (ElasticsearchMockServer server = new ElasticsearchMockServer()) {
+            // Given
+            server.setAvailable(false);
+            ElasticsearchConfiguration configuration = createBuilder(server)
+                    .setFlushThreshold(1000)
+                    .setFlushBytes(250)
+                    .build()
+                    .getLogConfiguration();
+            ElasticsearchLogDelivery delivery = new ElasticsearchLogDelivery(configuration, ElasticsearchUtils.createClient(configuration));
+            String message = "x".repeat(100);
+
+            // When
+            delivery.send(new HashMap<>(Map.of("logmessage", message)));
+            delivery.send(new HashMap<>(Map.of("logmessage", message)));
+            long requestsWhenFull = server.getRequests().sum();
+            delivery.send(new HashMap<>(Map.of("logmessage", message)));
+            long requestsWhenKept = server.getRequests().sum();
+            delivery.close();
+
+            // Then
+            assertThat(requestsWhenFull).isEqualTo(1);
+            assertThat(requestsWhenKept).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void testPipelinedOutage() throws Exception {
+        try (ElasticsearchMockServer server = new ElasticsearchMockServer()) {
+            // Given
+            server.setAvailable(false);
+            ElasticsearchAppender appender = createBuilder(server)
+                    .setMaxInFlightBulks(2)
+                    .setMaxRetries(1)
+                    .build();
+            ElasticsearchMetrics metrics = appender.getLogConfiguration().getMetrics();
+
+            // When
+            appender.start();
+            append(appender, 100);
+            await(() -> metrics.getEventsFailed() >= 100 && metrics.getInFlightBulks() == 0);
+            int inFlightAfterOutage = metrics.getInFlightBulks();
+            server.setAvailable(true);
+            append(appender, 100);
+            await(() -> server.getDocuments().sum() >= 100);
+            appender.stop();
+
+            // Then
+            assertThat(metrics.getEventsFailed()).isEqualTo(100);
+            assertThat(inFlightAfterOutage).isZero();
+            assertThat(server.getDocuments().sum()).isEqualTo(100);
+        }
+    }
+
+    @Test
+    void testSpoolMovedToPartitions(@TempDir Path directory) throws Exception {
+        try (ElasticsearchMockServer server = new ElasticsearchMockServer()) {
+            // Given
+            server.setAvailable(false);
+            ElasticsearchAppender spooling = createBuilder(server)
+                    .setSpoolDirectory(directory.toString())
+                    .build();
+            spooling.start();
+            append(spooling, 100);
+            spooling.stop();
+
+            // When
+            server.setAvailable(true);
+            ElasticsearchAppender appender = createBuilder(server)
+                    .setSpoolDirectory(directory.toString())
+                    .setDeliveryThreads(2)
+                    .build();
+            appender.start();
+            await(() -> server.getDocuments().sum() >= 100);
+            appender.stop();
+
+            // Then
+            assertThat(server.getDocuments().sum()).isEqualTo(100);
+        }
+    }
+
+    @Test
+    void testLoadHarness() throws Exception {
+        try (ElasticsearchMockServer server = new ElasticsearchMockServer()) {
+            // Given
+            server.setRecording(false);
+            server.setResponseTime(Duration.ofMillis(5));
+            server.setMaxDocumentsPerSecond(50_000);
+            ElasticsearchAppender appender = createBuilder(server)
+                    .setFlushThreshold(500)
+                    .setBufferSize(10_000)
+                    .build();
+            ElasticsearchLoadHarness harness = new ElasticsearchLoadHarness(appender, server);
+
+            // When
+            appender.start();
+            ElasticsearchLoadHarness.Report report = harness.run(5_000, 2, Duration.ofSeconds(1), Duration.ofSeconds(10));
+            await(() -> server.getDocuments().sum() + appender.getDroppedEvents() >= report.sent());
+            appender.stop();
+
+            // Then
+            assertThat(report.sent()).isPositive();
+            assertThat(server.getDocuments().sum() + appender.getDroppedEvents()).isEqualTo(report.sent());
+            assertThat(report.delivered() + report.dropped()).isEqualTo(report.sent());
+            assertThat(report.latency().getCount()).isEqualTo(report.delivered());
+            assertThat(report.toString()).contains("delivered=" + report.delivered());
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.chavaillaz.appender.log4j;
+
+import static com.chavaillaz.appender.log4j.ElasticsearchMockServerTest.append;
+import static com.chavaillaz.appender.log4j.ElasticsearchMockServerTest.await;
+import static com.chavaillaz.appender.log4j.ElasticsearchMockServerTest.createBuilder;
+import static com.chavaillaz.appender.log4j.ElasticsearchTestFixtures.configuration;
+import static com.chavaillaz.appender.log4j.ElasticsearchTestFixtures.event;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Map;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchAppender;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchCompiledConverter;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchConfiguration;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchLogConverter;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import tools.jackson.databind.JsonNode;
+
+class ElasticsearchPipelineTest {
+
+    @ParameterizedTest
+    @ValueSource(classes = {ElasticsearchLogConverter.class, ElasticsearchCompiledConverter.class})
+    void testTrimmedDocument(Class<?> converter) {
+        // Given
+        ElasticsearchConfiguration configuration = configuration(converter.getName(), options -> {
+            options.setOmitConstantFields(true);
+            options.setMaxMessageLength(10);
+            options.setMaxStackTraceLength(50);
+            options.setDropEmptyMdc(true);
+        });
+        SortedArrayStringMap contextData = new SortedArrayStringMap();
+        contextData.putValue("requestId", "abc");
+        contextData.putValue("userId", "");
+        LogEvent event = event("myLogger", Level.ERROR)
+                .setMessage(new SimpleMessage("A message longer than the limit"))
+                .setContextData(contextData)
+                .setThrown(new IllegalStateException("Failure"))
+                .build();
+
+        // When
+        Map<String, Object> document = configuration.getConverter().convert(event);
+
+        // Then
+        assertThat(document).doesNotContainKeys("host", "environment", "application", "userId");
+        assertThat(document).containsEntry("logmessage", "A message ");
+        assertThat(document).containsEntry("requestId", "abc");
+        assertThat(document.get("stacktrace").toString())
+                .hasSize(50)
+                .startsWith("java.lang.IllegalStateException: Failure");
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testPipeline(boolean streaming) throws Exception {
+        try (ElasticsearchMockServer server = new ElasticsearchMockServer()) {
+            // Given
+            ElasticsearchAppender appender = createBuilder(server)
+                    .setPipeline("logs-enrich")
+                    .setOmitConstantFields(true)
+                    .setStreamingBulk(streaming)
+                    .build();
+
+            // When
+            appender.start();
+            append(appender, 100);
+            await(() -> server.getDocuments().sum() >= 100);
+            appender.stop();
+
+            // Then
+            assertThat(server.getDocuments().sum()).isEqualTo(100);
+            assertThat(server.getRecordedPipelines())
+                    .isNotEmpty()
+                    .allMatch("logs-enrich"::equals);
+            JsonNode document = server.getRecordedDocuments().peek();
+            assertThat(document).isNotNull();
+            assertThat(document.has("logmessage")).isTrue();
+            assertThat(document.has("application")).isFalse();
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.chavaillaz.appender.log4j;
+
+import static com.chavaillaz.appender.log4j.ElasticsearchTestFixtures.event;
+import static org.apache.logging.log4j.Level.INFO;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchRingBuffer;
+import org.junit.jupiter.api.Test;
+
+class ElasticsearchRingBufferTest {
+
+    @Test
+    void testCapacityRoundedToPowerOfTwo() {
+        assertThat(new ElasticsearchRingBuffer(1).getCapacity()).isEqualTo(1);
+        assertThat(new ElasticsearchRingBuffer(5).getCapacity()).isEqualTo(8);
+        assertThat(new ElasticsearchRingBuffer(1024).getCapacity()).isEqualTo(1024);
+    }
+
+    @Test
+    void testPublishAndConsumeInOrder() {
+        // Given
+        ElasticsearchRingBuffer ringBuffer = new ElasticsearchRingBuffer(4);
+        List<String> messages = new ArrayList<>();
+
+        // When
+        for (int i = 0; i < 4; i++) {
+            assertThat(ringBuffer.publish(event(INFO, "message-" + i))).isTrue();
+        }
+        boolean overflow = ringBuffer.publish(event(INFO, "overflow"));
+        int consumed = ringBuffer.consume(event -> messages.add(event.getMessage().getFormattedMessage()));
+
+        // Then
+        assertThat(overflow).isFalse();
+        assertThat(consumed).isEqualTo(4);
+        assertThat(messages).containsExactly("message-0", "message-1", "message-2", "message-3");
+        assertThat(ringBuffer.getSize()).isZero();
+        assertThat(ringBuffer.publish(event(INFO, "again"))).isTrue();
+    }
+
+}
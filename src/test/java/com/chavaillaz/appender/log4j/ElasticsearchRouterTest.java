@@ -0,0 +1,125 @@
+package com.chavaillaz.appender.log4j;
+
+import static com.chavaillaz.appender.log4j.ElasticsearchTestFixtures.compiledConfiguration;
+import static com.chavaillaz.appender.log4j.ElasticsearchTestFixtures.event;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.ByteBuffer;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchBufferPool;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchBulkBody;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchBulkSerializer;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchConfiguration;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchIndexResolver;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchRoute;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchRouter;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.junit.jupiter.api.Test;
+
+class ElasticsearchRouterTest {
+
+    @Test
+    void testRouteWithUnknownLevel() {
+        // When
+        ElasticsearchRoute route = new ElasticsearchRoute("logs", false, "warn, Error", null, null, null);
+
+        // Then
+        assertThat(route.getLevels()).containsExactlyInAnyOrder(Level.WARN, Level.ERROR);
+        assertThatThrownBy(() -> new ElasticsearchRoute("logs", false, "INFO, WARNING", null, null, null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Unknown level WARNING in route to logs");
+    }
+
+    @Test
+    void testRouteByConditions() {
+        // Given
+        SortedArrayStringMap context = new SortedArrayStringMap();
+        context.putValue("tenant", "abc");
+        ElasticsearchRouter router = new ElasticsearchRouter(List.of(
+                new ElasticsearchRoute("audit", false, null, null, "AUDIT", null),
+                new ElasticsearchRoute("logs-debug", true, "DEBUG, TRACE", null, null, null),
+                new ElasticsearchRoute("sql", false, null, "org.hibernate", null, null),
+                new ElasticsearchRoute("tenants", false, "ERROR", null, null, "tenant")),
+                "-yyyy.MM", true, ZoneOffset.UTC);
+
+        // When
+        LogEvent audit = event("com.app", Level.DEBUG).setMarker(MarkerManager.getMarker("AUDIT")).build();
+        LogEvent debug = event("com.app", Level.TRACE).build();
+        LogEvent sql = event("org.hibernate.SQL", Level.INFO).build();
+        LogEvent tenant = event("com.app", Level.ERROR).setContextData(context).build();
+        LogEvent other = event("com.app", Level.INFO).setContextData(context).build();
+
+        // Then
+        assertThat(router.route(audit)).isEqualTo("audit-2023.11");
+        assertThat(router.route(debug)).isEqualTo("logs-debug");
+        assertThat(router.route(sql)).isEqualTo("sql-2023.11");
+        assertThat(router.route(tenant)).isEqualTo("tenants-2023.11");
+        assertThat(router.route(other)).isNull();
+        assertThat(router.isDataStream("logs-debug")).isTrue();
+        assertThat(router.isDataStream("audit-2023.11")).isFalse();
+    }
+
+    @Test
+    void testCreateInDataStream() {
+        // Given
+        ElasticsearchConfiguration configuration = new ElasticsearchConfiguration();
+        configuration.setIndex("ha");
+        configuration.setRoutes(List.of(new ElasticsearchRoute("logs-debug", true, "DEBUG", null, null, null)));
+        ElasticsearchBulkSerializer serializer = new ElasticsearchBulkSerializer(configuration, new ElasticsearchBufferPool(2, 1024));
+        Map<String, Object> debug = new HashMap<>(Map.of("level", "DEBUG"));
+        String index = configuration.getRouter().route(event("logger", Level.DEBUG).build());
+
+        // When
+        ElasticsearchBulkBody body = serializer.serialize(List.of(
+                ElasticsearchIndexResolver.withIndex(debug, index),
+                new HashMap<>(Map.of("level", "INFO"))));
+        ByteBuffer content = body.content();
+        String bulk = UTF_8.decode(content).toString();
+        body.release();
+
+        // Then
+        assertThat(bulk).isEqualTo("{\"create\":{\"_index\":\"logs-debug\"}}\n{\"level\":\"DEBUG\"}\n"
+                + "{\"index\":{\"_index\":\"ha\"}}\n{\"level\":\"INFO\"}\n");
+    }
+
+    @Test
+    void testTimestampInDataStream() {
+        // Given
+        ElasticsearchConfiguration configuration = new ElasticsearchConfiguration();
+        configuration.setIndex("ha");
+        configuration.setRoutes(List.of(new ElasticsearchRoute("logs-debug", true, "DEBUG", null, null, null)));
+        ElasticsearchBulkSerializer serializer = new ElasticsearchBulkSerializer(configuration, new ElasticsearchBufferPool(2, 1024));
+        LogEvent event = event("logger", Level.DEBUG).build();
+        String index = configuration.getRouter().route(event);
+        ElasticsearchConfiguration compiled = compiledConfiguration("level");
+        ElasticsearchConfiguration timestamped = compiledConfiguration("datetime:@timestamp,level");
+
+        // When
+        ElasticsearchBulkBody body = serializer.serialize(List.of(
+                ElasticsearchIndexResolver.withDataStream(new HashMap<>(Map.of("level", "DEBUG")), index, event.getTimeMillis()),
+                ElasticsearchIndexResolver.withDataStream(compiled.getConverter().convert(event), index, event.getTimeMillis()),
+                ElasticsearchIndexResolver.withDataStream(timestamped.getConverter().convert(event), index, event.getTimeMillis())));
+        String bulk = UTF_8.decode(body.content()).toString();
+        body.release();
+
+        // Then
+        assertThat(bulk).isEqualTo("""
+                {"create":{"_index":"logs-debug"}}
+                {"level":"DEBUG","@timestamp":"2023-11-14T22:13:20Z"}
+                {"create":{"_index":"logs-debug"}}
+                {"@timestamp":"2023-11-14T22:13:20Z","level":"DEBUG"}
+                {"create":{"_index":"logs-debug"}}
+                {"@timestamp":"2023-11-14T22:13:20Z","level":"DEBUG"}
+                """);
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.chavaillaz.appender.log4j;
+
+import static com.chavaillaz.appender.log4j.ElasticsearchTestFixtures.event;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.stream.IntStream;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchCompiledConverter;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchConfiguration;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchLogConverter;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchRawDocument;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchSampler;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.junit.jupiter.api.Test;
+
+class ElasticsearchSamplerTest {
+
+    protected static long accepted(ElasticsearchSampler sampler, LogEvent event, int count) {
+        return IntStream.range(0, count).filter(i -> sampler.accept(event)).count();
+    }
+
+    @Test
+    void testRateLimitPerLoggerAndLevel() {
+        // Given
+        ElasticsearchSampler sampler = new ElasticsearchSampler(Level.INFO, 1, 10);
+
+        // When
+        long first = accepted(sampler, event("first", Level.INFO).build(), 100);
+        long second = accepted(sampler, event("second", Level.INFO).build(), 100);
+        long debug = accepted(sampler, event("first", Level.DEBUG).build(), 100);
+        long warn = accepted(sampler, event("first", Level.WARN).build(), 100);
+
+        // Then
+        assertThat(first).isBetween(10L, 11L);
+        assertThat(second).isBetween(10L, 11L);
+        assertThat(debug).isBetween(10L, 11L);
+        assertThat(warn).isEqualTo(100);
+    }
+
+    @Test
+    void testSampleRate() {
+        // Given
+        ElasticsearchSampler sampler = new ElasticsearchSampler(Level.DEBUG, 0.1, 0);
+
+        // When
+        long debug = accepted(sampler, event("logger", Level.DEBUG).build(), 10_000);
+        long info = accepted(sampler, event("logger", Level.INFO).build(), 10_000);
+
+        // Then
+        assertThat(debug).isBetween(500L, 1_500L);
+        assertThat(info).isEqualTo(10_000);
+    }
+
+    @Test
+    void testSampleRateField() {
+        // Given
+        ElasticsearchConfiguration configuration = new ElasticsearchConfiguration();
+        configuration.setSampler(new ElasticsearchSampler(Level.INFO, 0.5, 0));
+        configuration.setConverter(ElasticsearchLogConverter.class.getName());
+
+        // When
+        var info = configuration.getConverter().convert(event("logger", Level.INFO).build());
+        var error = configuration.getConverter().convert(event("logger", Level.ERROR).build());
+
+        // Then
+        assertThat(info).containsEntry(ElasticsearchSampler.SAMPLE_RATE_FIELD, 0.5);
+        assertThat(error).doesNotContainKey(ElasticsearchSampler.SAMPLE_RATE_FIELD);
+    }
+
+    @Test
+    void testSampleRateFieldCompiled() {
+        // Given
+        ElasticsearchConfiguration configuration = new ElasticsearchConfiguration();
+        configuration.setSampler(new ElasticsearchSampler(Level.INFO, 0.5, 0));
+        configuration.setConverter(ElasticsearchCompiledConverter.class.getName());
+
+        // When
+        var info = (ElasticsearchRawDocument) configuration.getConverter().convert(event("logger", Level.INFO).build());
+        var error = (ElasticsearchRawDocument) configuration.getConverter().convert(event("logger", Level.ERROR).build());
+
+        // Then
+        assertThat(info.toJson()).endsWith("\"samplerate\":0.5}");
+        assertThat(error.toJson()).doesNotContain("samplerate");
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.chavaillaz.appender.log4j;
+
+import static com.chavaillaz.appender.log4j.ElasticsearchMockServerTest.append;
+import static com.chavaillaz.appender.log4j.ElasticsearchMockServerTest.createBuilder;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchAppender;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ElasticsearchShutdownTest {
+
+    @Test
+    void testShutdownDeliversPendingEvents() throws Exception {
+        try (ElasticsearchMockServer server = new ElasticsearchMockServer()) {
+            // Given
+            server.setResponseTime(Duration.ofMillis(20));
+            ElasticsearchAppender appender = createBuilder(server)
+                    .setFlushInterval(60_000)
+                    .setFlushThreshold(100)
+                    .setBufferSize(10_000)
+                    .setDeliveryThreads(2)
+                    .build();
+
+            // When
+            appender.start();
+            append(appender, 1_050);
+            appender.stop();
+            append(appender, 10);
+
+            // Then
+            assertThat(server.getDocuments().sum()).isEqualTo(1_050);
+            assertThat(appender.getLogConfiguration().getMetrics().getEventsSpilled()).isZero();
+            assertThat(appender.getDroppedEvents()).isEqualTo(10);
+        }
+    }
+
+    @Test
+    void testShutdownDeliversPendingTasks() throws Exception {
+        try (ElasticsearchMockServer server = new ElasticsearchMockServer()) {
+            // Given
+            ElasticsearchAppender appender = createBuilder(server)
+                    .setFlushInterval(60_000)
+                    .build();
+
+            // When
+            appender.start();
+            append(appender, 120);
+            appender.stop();
+
+            // Then
+            assertThat(server.getDocuments().sum()).isEqualTo(120);
+        }
+    }
+
+    @Test
+    void testShutdownSpillsUndeliveredEvents(@TempDir Path directory) throws Exception {
+        try (ElasticsearchMockServer server = new ElasticsearchMockServer()) {
+            // Given
+            Path file = directory.resolve("shutdown.ndjson");
+            server.setRejectionRate(1);
+            server.setRejectionStatus(503);
+            ElasticsearchAppender appender = createBuilder(server)
+                    .setShutdownTimeout(3_000)
+                    .setShutdownFile(file.toString())
+                    .setMaxRetries(100)
+                    .build();
+
+            // When
+            appender.start();
+            append(appender, 120);
+            long start = System.nanoTime();
+            appender.stop();
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+            // Then
+            List<String> lines = Files.readAllLines(file);
+            assertThat(elapsed).isLessThan(Duration.ofSeconds(5));
+            assertThat(server.getDocuments().sum()).isZero();
+            assertThat(lines).hasSize(240);
+            assertThat(lines.get(0)).startsWith("{\"index\":{\"_index\":\"ha");
+            assertThat(lines.get(1)).contains("\"logmessage\":\"Event ");
+            assertThat(appender.getLogConfiguration().getMetrics().getEventsSpilled()).isEqualTo(120);
+        }
+    }
+
+    @Test
+    void testShutdownWithinStopTimeout(@TempDir Path directory) throws Exception {
+        try (ElasticsearchMockServer server = new ElasticsearchMockServer()) {
+            // Given
+            Path file = directory.resolve("shutdown.ndjson");
+            server.setItemFailureRate(1);
+            ElasticsearchAppender appender = createBuilder(server)
+                    .setShutdownTimeout(30_000)
+                    .setShutdownFile(file.toString())
+                    .setMaxRetries(100)
+                    .build();
+
+            // When
+            appender.start();
+            append(appender, 120);
+            long start = System.nanoTime();
+            appender.stop(1, TimeUnit.SECONDS);
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+            // Then
+            assertThat(elapsed).isLessThan(Duration.ofSeconds(5));
+            assertThat(Files.readAllLines(file)).hasSize(240);
+        }
+    }
+
+}
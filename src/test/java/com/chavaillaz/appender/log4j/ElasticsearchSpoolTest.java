@@ -0,0 +1,186 @@
+package com.chavaillaz.appender.log4j;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchSpool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+class ElasticsearchSpoolTest {
+
+    @TempDir
+    Path directory;
+
+    protected static ByteBuffer content(String value) {
+        return ByteBuffer.wrap(value.getBytes(UTF_8));
+    }
+
+    protected static String read(ElasticsearchSpool.Record record) {
+        return UTF_8.decode(record.content()).toString();
+    }
+
+    @Test
+    void testAppendReadCommit() throws IOException {
+        try (ElasticsearchSpool spool = new ElasticsearchSpool(directory, 1024, 4096)) {
+            // When
+            spool.append(content("first"), 1);
+            spool.append(content("second"), 2);
+
+            // Then
+            ElasticsearchSpool.Record first = spool.read();
+            assertThat(read(first)).isEqualTo("first");
+            assertThat(read(spool.read())).isEqualTo("first");
+            spool.commit(first);
+            ElasticsearchSpool.Record second = spool.read();
+            assertThat(read(second)).isEqualTo("second");
+            assertThat(second.documents()).isEqualTo(2);
+            spool.commit(second);
+            assertThat(spool.read()).isNull();
+            assertThat(spool.isEmpty()).isTrue();
+        }
+    }
+
+    @Test
+    void testRecoveryFromCheckpoint() throws IOException {
+        // Given
+        try (ElasticsearchSpool spool = new ElasticsearchSpool(directory, 1024, 4096)) {
+            spool.append(content("first"), 1);
+            spool.append(content("second"), 1);
+            spool.commit(spool.read());
+        }
+
+        // When
+        try (ElasticsearchSpool spool = new ElasticsearchSpool(directory, 1024, 4096)) {
+            spool.append(content("third"), 1);
+
+            // Then
+            ElasticsearchSpool.Record second = spool.read();
+            assertThat(read(second)).isEqualTo("second");
+            spool.commit(second);
+            assertThat(read(spool.read())).isEqualTo("third");
+        }
+    }
+
+    @Test
+    void testIncompleteRecordSkipped() throws IOException {
+        // Given
+        try (ElasticsearchSpool spool = new ElasticsearchSpool(directory, 1024, 4096)) {
+            spool.append(content("first"), 1);
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            Path segment = files.filter(file -> file.toString().endsWith(".spool")).findFirst().orElseThrow();
+            Files.write(segment, new byte[]{0, 0, 0, 42, 1, 2}, APPEND);
+        }
+
+        // When
+        try (ElasticsearchSpool spool = new ElasticsearchSpool(directory, 1024, 4096)) {
+            spool.append(content("second"), 1);
+
+            // Then
+            spool.commit(spool.read());
+            assertThat(read(spool.read())).isEqualTo("second");
+        }
+    }
+
+    @Test
+    void testOldestSegmentDroppedWhenFull() throws IOException {
+        try (ElasticsearchSpool spool = new ElasticsearchSpool(directory, 32, 64)) {
+            // When
+            spool.append(content("a".repeat(20)), 3);
+            spool.append(content("b".repeat(20)), 1);
+            spool.append(content("c".repeat(20)), 1);
+
+            // Then
+            assertThat(spool.getDroppedDocuments()).isEqualTo(3);
+            assertThat(spool.getSize()).isLessThanOrEqualTo(64);
+            assertThat(read(spool.read())).isEqualTo("b".repeat(20));
+        }
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void testCorruptSegmentDroppedWhenFull() throws IOException {
+        // Given
+        try (ElasticsearchSpool spool = new ElasticsearchSpool(directory, 32, 64)) {
+            spool.append(content("a".repeat(20)), 3);
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            Path segment = files.filter(file -> file.toString().endsWith(".spool")).findFirst().orElseThrow();
+            try (var channel = Files.newByteChannel(segment, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(4).putInt(0, -12));
+            }
+        }
+
+        // When
+        try (ElasticsearchSpool spool = new ElasticsearchSpool(directory, 32, 64)) {
+            spool.append(content("b".repeat(20)), 1);
+            spool.append(content("c".repeat(20)), 1);
+
+            // Then
+            assertThat(spool.getDroppedDocuments()).isZero();
+            assertThat(read(spool.read())).isEqualTo("b".repeat(20));
+        }
+    }
+
+    @Test
+    void testRecordsKeptWithSyncInterval() throws IOException {
+        // Given
+        try (ElasticsearchSpool spool = new ElasticsearchSpool(directory, 1024, 4096, Duration.ofHours(1))) {
+            spool.append(content("first"), 1);
+            spool.append(content("second"), 1);
+            spool.sync();
+            spool.append(content("third"), 1);
+        }
+
+        // When
+        try (ElasticsearchSpool spool = new ElasticsearchSpool(directory, 1024, 4096, Duration.ofHours(1))) {
+            // Then
+            ElasticsearchSpool.Record first = spool.read();
+            assertThat(read(first)).isEqualTo("first");
+            spool.commit(first);
+            ElasticsearchSpool.Record second = spool.read();
+            assertThat(read(second)).isEqualTo("second");
+            spool.commit(second);
+            assertThat(read(spool.read())).isEqualTo("third");
+        }
+    }
+
+    @Test
+    void testTransfer() throws IOException {
+        // Given
+        Path source = directory.resolve("source");
+        try (ElasticsearchSpool spool = new ElasticsearchSpool(source, 1024, 4096)) {
+            spool.append(content("first"), 1);
+            spool.append(content("second"), 2);
+            spool.commit(spool.read());
+        }
+
+        // When
+        try (ElasticsearchSpool spool = new ElasticsearchSpool(directory.resolve("target"), 1024, 4096)) {
+            spool.append(content("target"), 1);
+            long documents = ElasticsearchSpool.transfer(source, spool);
+
+            // Then
+            assertThat(documents).isEqualTo(2);
+            spool.commit(spool.read());
+            assertThat(read(spool.read())).isEqualTo("second");
+            try (Stream<Path> files = Files.list(source)) {
+                assertThat(files).isEmpty();
+            }
+            assertThat(ElasticsearchSpool.transfer(source, spool)).isZero();
+        }
+    }
+
+}
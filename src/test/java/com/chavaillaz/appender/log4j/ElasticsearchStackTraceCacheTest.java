@@ -0,0 +1,118 @@
+package com.chavaillaz.appender.log4j;
+
+import static com.chavaillaz.appender.log4j.ElasticsearchTestFixtures.configuration;
+import static com.chavaillaz.appender.log4j.ElasticsearchTestFixtures.event;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.Map;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchCompiledConverter;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchConfiguration;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchLogConverter;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchStackTraceCache;
+import org.apache.logging.log4j.Level;
+import org.junit.jupiter.api.Test;
+
+class ElasticsearchStackTraceCacheTest {
+
+    protected static Exception createException(String message) {
+        return new IllegalStateException(message, new IllegalArgumentException("cause"));
+    }
+
+
+
+    @Test
+    void testFingerprint() {
+        // Given
+        Exception[] sameLine = new Exception[2];
+        for (int i = 0; i < sameLine.length; i++) {
+            sameLine[i] = createException("message " + i);
+        }
+        Exception otherLine = createException("message");
+
+        // When
+        String first = ElasticsearchStackTraceCache.fingerprint(sameLine[0]);
+        String second = ElasticsearchStackTraceCache.fingerprint(sameLine[1]);
+        String other = ElasticsearchStackTraceCache.fingerprint(otherLine);
+
+        // Then
+        assertThat(first).hasSize(16).isEqualTo(second);
+        assertThat(other).isNotEqualTo(first);
+    }
+
+    @Test
+    void testDeduplicationWindow() {
+        // Given
+        ElasticsearchStackTraceCache cache = new ElasticsearchStackTraceCache(1, Duration.ofMillis(100));
+        Exception exception = createException("message");
+
+        // When
+        ElasticsearchStackTraceCache.StackTrace first = cache.get(exception, 1000);
+        ElasticsearchStackTraceCache.StackTrace second = cache.get(exception, 1050);
+        ElasticsearchStackTraceCache.StackTrace nextWindow = cache.get(exception, 1100);
+        cache.get(new RuntimeException(), 1100);
+
+        // Then
+        assertThat(first.stackTrace()).startsWith("java.lang.IllegalStateException: message");
+        assertThat(first.occurrences()).isEqualTo(1);
+        assertThat(second.stackTrace()).isNull();
+        assertThat(second.occurrences()).isEqualTo(2);
+        assertThat(second.fingerprint()).isEqualTo(first.fingerprint());
+        assertThat(nextWindow.stackTrace()).isEqualTo(first.stackTrace());
+        assertThat(nextWindow.occurrences()).isEqualTo(1);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void testMessagesOfEachOccurrence() {
+        // Given
+        ElasticsearchStackTraceCache cache = new ElasticsearchStackTraceCache(16, Duration.ZERO);
+        Exception[] exceptions = new Exception[2];
+        for (int i = 0; i < exceptions.length; i++) {
+            exceptions[i] = createException("message " + i);
+            exceptions[i].addSuppressed(new IllegalStateException("suppressed " + i));
+        }
+
+        // When
+        ElasticsearchStackTraceCache.StackTrace first = cache.get(exceptions[0], 1000);
+        ElasticsearchStackTraceCache.StackTrace second = cache.get(exceptions[1], 1000);
+
+        // Then
+        assertThat(second.fingerprint()).isEqualTo(first.fingerprint());
+        assertThat(first.stackTrace()).isEqualTo(ElasticsearchStackTraceCache.render(exceptions[0]));
+        assertThat(second.stackTrace()).isEqualTo(ElasticsearchStackTraceCache.render(exceptions[1]));
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void testConverters() {
+        for (String converter : new String[]{ElasticsearchLogConverter.class.getName(), ElasticsearchCompiledConverter.class.getName()}) {
+            // Given
+            ElasticsearchConfiguration configuration = configuration(converter, options -> options
+                    .setStackTraceCache(new ElasticsearchStackTraceCache(16, Duration.ofSeconds(10))));
+            Exception exception = createException("message");
+
+            // When
+            Map<String, Object> first = configuration.getConverter().convert(event("logger", Level.ERROR)
+                    .setTimeMillis(1000)
+                    .setThrown(exception)
+                    .build());
+            Map<String, Object> second = configuration.getConverter().convert(event("logger", Level.ERROR)
+                    .setTimeMillis(2000)
+                    .setThrown(exception)
+                    .build());
+
+            // Then
+            assertThat(first)
+                    .containsEntry("class", "java.lang.IllegalStateException")
+                    .containsKey("stacktrace");
+            assertThat(((Number) first.get("occurrences")).longValue()).isEqualTo(1);
+            assertThat(second)
+                    .containsEntry("fingerprint", first.get("fingerprint"))
+                    .doesNotContainKey("stacktrace");
+            assertThat(((Number) second.get("occurrences")).longValue()).isEqualTo(2);
+        }
+    }
+
+}
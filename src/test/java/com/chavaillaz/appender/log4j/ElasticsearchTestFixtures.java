@@ -0,0 +1,84 @@
+package com.chavaillaz.appender.log4j;
+
+import java.util.function.Consumer;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchCompiledConverter;
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchConfiguration;
+import lombok.experimental.UtilityClass;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+
+/**
+ * Events and configurations shared by the tests.
+ */
+@UtilityClass
+public class ElasticsearchTestFixtures {
+
+    /**
+     * Time of the events created, in milliseconds since epoch.
+     */
+    public static final long EVENT_TIME = 1_700_000_000_000L;
+
+    /**
+     * Creates a builder of event with the given logger and level, at {@link #EVENT_TIME}.
+     *
+     * @param logger The name of the logger
+     * @param level  The level of the event
+     * @return The event builder
+     */
+    public static Log4jLogEvent.Builder event(String logger, Level level) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName(logger)
+                .setLevel(level)
+                .setTimeMillis(EVENT_TIME)
+                .setMessage(new SimpleMessage("message"));
+    }
+
+    /**
+     * Creates an event with the given level and message.
+     *
+     * @param level   The level of the event
+     * @param message The message of the event
+     * @return The event
+     */
+    public static LogEvent event(Level level, String message) {
+        return event(ElasticsearchTestFixtures.class.getName(), level)
+                .setMessage(new SimpleMessage(message))
+                .build();
+    }
+
+    /**
+     * Creates a configuration with the constant fields, the index and the credentials set, using the given converter.
+     *
+     * @param converter The class name of the converter or {@code null} for the default one
+     * @param options   The additional options to set before configuring the converter
+     * @return The configuration
+     */
+    public static ElasticsearchConfiguration configuration(String converter, Consumer<ElasticsearchConfiguration> options) {
+        ElasticsearchConfiguration configuration = new ElasticsearchConfiguration();
+        configuration.setApplication("myApplication");
+        configuration.setHost("myHost");
+        configuration.setEnvironment("local");
+        configuration.setIndex("ha");
+        configuration.setUser("elastic");
+        configuration.setPassword("changeme");
+        options.accept(configuration);
+        if (converter != null) {
+            configuration.setConverter(converter);
+        }
+        return configuration;
+    }
+
+    /**
+     * Creates a configuration using the compiled converter with the given field layout.
+     *
+     * @param fields The field layout or {@code null} for the default one
+     * @return The configuration
+     */
+    public static ElasticsearchConfiguration compiledConfiguration(String fields) {
+        return configuration(ElasticsearchCompiledConverter.class.getName(), configuration -> configuration.setFields(fields));
+    }
+
+}
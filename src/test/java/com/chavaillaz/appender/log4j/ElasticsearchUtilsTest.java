@@ -0,0 +1,80 @@
+package com.chavaillaz.appender.log4j;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.chavaillaz.appender.log4j.elastic.ElasticsearchUtils;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.Node;
+import org.junit.jupiter.api.Test;
+
+class ElasticsearchUtilsTest {
+
+    protected static Node node(String host, String... roles) {
+        HttpHost httpHost = HttpHost.create(host);
+        return new Node(httpHost, Set.of(httpHost), host, "9", new Node.Roles(Set.of(roles)), Map.of());
+    }
+
+    @Test
+    void testParseHosts() {
+        // When
+        HttpHost[] hosts = ElasticsearchUtils.parseHosts("http://node1:9200, https://node2:9243,");
+
+        // Then
+        assertThat(hosts).containsExactly(
+                new HttpHost("node1", 9200, "http"),
+                new HttpHost("node2", 9243, "https"));
+    }
+
+    @Test
+    void testTruncate() {
+        // When
+        String truncated = ElasticsearchUtils.truncate("message", 4);
+        String surrogate = ElasticsearchUtils.truncate("abc\uD83D\uDE00", 4);
+
+        // Then
+        assertThat(truncated).isEqualTo("mess");
+        assertThat(surrogate).isEqualTo("abc");
+        assertThat(ElasticsearchUtils.truncate("message", 0)).isEqualTo("message");
+        assertThat(ElasticsearchUtils.truncate(null, 4)).isNull();
+    }
+
+    @Test
+    void testIngestNodeSelector() {
+        // Given
+        Node unknown = new Node(HttpHost.create("http://node1:9200"));
+        Node ingest = node("http://node2:9200", "data", "ingest");
+        Node master = node("http://node3:9200", "master");
+        List<Node> nodes = new ArrayList<>(List.of(unknown, ingest, master));
+
+        // When
+        ElasticsearchUtils.createNodeSelector("ingest").select(nodes);
+
+        // Then
+        assertThat(nodes).containsExactly(unknown, ingest);
+    }
+
+    @Test
+    void testThreadFactory() throws Exception {
+        // When
+        Thread platform = ElasticsearchUtils.createThreadFactory("platform", false).newThread(() -> {
+        });
+        Thread virtual = ElasticsearchUtils.createThreadFactory("virtual", true).newThread(() -> {
+        });
+
+        // Then
+        assertThat(platform.getName()).isEqualTo("platform");
+        assertThat(platform.isDaemon()).isTrue();
+        assertThat(virtual.getName()).isEqualTo("virtual");
+        if (ElasticsearchUtils.isVirtualThreadSupported()) {
+            assertThat(Thread.class.getMethod("isVirtual").invoke(virtual)).isEqualTo(true);
+        } else {
+            assertThat(virtual.isDaemon()).isTrue();
+        }
+    }
+
+}